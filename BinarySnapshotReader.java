@@ -0,0 +1,393 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a ContactManager binary data file (see BinarySnapshotWriter for the format).
+ * The file is either read through a FileChannel into a direct buffer, one block at a time,
+ * or read from a buffer holding the whole file (normally the file mapped into memory).
+ * Contacts and then meetings are read one at a time with nextContact() and nextMeeting(),
+ * after which the fields of the record just read are available from the getters.
+ *
+ * When reading a whole-file buffer the meeting notes can be skipped rather than decoded:
+ * getNotesPosition() then gives where they are, to be decoded later with readStringAt().
+ * Whole records can be skipped too, with skipContact() and skipMeeting(), keeping only
+ * their IDs and where they start (getRecordPosition()), to be read later with
+ * readContactAt() and readMeetingAt().
+ *
+ * @author markkingsbury
+ */
+
+public class BinarySnapshotReader implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int[] NO_CONTACTS = new int[0];
+
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private boolean skipMeetingNotes;
+	private int notesPosition;
+	private int recordPosition;
+	private int contactCount;
+	private int contactsLeft;
+	private int meetingsLeft;
+	private int meetingCount;
+
+	private int id;
+	private String name;
+	private String notes;
+	private long timeInMillis;
+	private int[] contactIds;
+
+	/**
+	 * Opens a binary data file and reads its header.
+	 * @param file the file to read
+	 * @throws IOException if the file can not be read or is not a binary data file
+	 */
+	public BinarySnapshotReader(File file) throws IOException {
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		buffer.limit(0);
+		readHeader();
+	}
+
+	/**
+	 * Reads a binary data file held whole in a buffer, and reads its header.
+	 * @param wholeFile the file's contents, from position zero; the buffer's position is
+	 *	used for reading so a buffer shared with others should be duplicated first
+	 * @param skipMeetingNotes true if meeting notes should be skipped rather than decoded
+	 * @throws IOException if the buffer does not hold a binary data file
+	 */
+	public BinarySnapshotReader(ByteBuffer wholeFile, boolean skipMeetingNotes) throws IOException {
+		this.channel = null;
+		this.buffer = wholeFile;
+		this.skipMeetingNotes = skipMeetingNotes;
+		readHeader();
+	}
+
+	/**
+	 * Decodes a string from a buffer holding a whole data file, without changing the
+	 * buffer's position (so several threads may decode from one buffer).
+	 * @param wholeFile the file's contents
+	 * @param position where the string (its length, then its bytes) starts
+	 * @return the string
+	 */
+	public static String readStringAt(ByteBuffer wholeFile, int position) {
+		int length = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = wholeFile.get(position++);
+			length |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		byte[] bytes = new byte[length];
+		ByteBuffer view = wholeFile.duplicate();
+		view.position(position);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private void readHeader() throws IOException {
+		ensure(BinarySnapshotWriter.MAGIC.length + 1);
+		for (byte expected: BinarySnapshotWriter.MAGIC) {
+			if (buffer.get() != expected) {
+				throw new IOException("Not a binary data file");
+			}
+		}
+		int version = buffer.get();
+		if (version != BinarySnapshotWriter.VERSION) {
+			throw new IOException("Unsupported data file version " + version);
+		}
+		this.contactCount = readVarInt();
+		this.contactsLeft = contactCount;
+		this.meetingCount = -1;
+	}
+
+	/**
+	 * @return the number of contacts in the file
+	 */
+	public int getContactCount() {
+		return contactCount;
+	}
+
+	/**
+	 * @return the number of meetings in the file, or -1 if the meetings have not been reached
+	 */
+	public int getMeetingCount() {
+		return meetingCount;
+	}
+
+	/**
+	 * Reads the next contact.
+	 * @return true if a contact was read, false if all contacts have been read
+	 * @throws IOException if the file can not be read
+	 */
+	public boolean nextContact() throws IOException {
+		if (contactsLeft == 0) {
+			return false;
+		}
+		readContact();
+		contactsLeft--;
+		return true;
+	}
+
+	/**
+	 * Skips the next contact, reading only its ID and where it starts.
+	 * @return true if a contact was skipped, false if all contacts have been read
+	 * @throws IOException if the file can not be read
+	 */
+	public boolean skipContact() throws IOException {
+		if (contactsLeft == 0) {
+			return false;
+		}
+		recordPosition = buffer.position();
+		id = readVarInt();
+		skipString();
+		skipString();
+		contactsLeft--;
+		return true;
+	}
+
+	/**
+	 * Reads the next meeting.  Any contacts not yet read are skipped.
+	 * @return true if a meeting was read, false if all meetings have been read
+	 * @throws IOException if the file can not be read
+	 */
+	public boolean nextMeeting() throws IOException {
+		if (!startMeeting()) {
+			return false;
+		}
+		readMeeting();
+		meetingsLeft--;
+		return true;
+	}
+
+	/**
+	 * Skips the next meeting, reading only its ID and where it starts.  Any contacts not yet
+	 * read are skipped.
+	 * @return true if a meeting was skipped, false if all meetings have been read
+	 * @throws IOException if the file can not be read
+	 */
+	public boolean skipMeeting() throws IOException {
+		if (!startMeeting()) {
+			return false;
+		}
+		recordPosition = buffer.position();
+		id = readVarInt();
+		readVarLong();
+		skipString();
+		int count = readVarInt();
+		for (int i = 0; i < count; i++) {
+			readVarInt();
+		}
+		meetingsLeft--;
+		return true;
+	}
+
+	/**
+	 * Reads the contact starting at the position given, from a whole-file buffer.  Reading
+	 * in order carries on from the end of this contact, so should be finished first.
+	 * @param position where the contact starts (see getRecordPosition())
+	 * @throws IOException if the buffer does not hold a contact there
+	 */
+	public void readContactAt(int position) throws IOException {
+		seek(position);
+		readContact();
+	}
+
+	/**
+	 * Reads the meeting starting at the position given, from a whole-file buffer (see
+	 * readContactAt()).
+	 * @param position where the meeting starts (see getRecordPosition())
+	 * @throws IOException if the buffer does not hold a meeting there
+	 */
+	public void readMeetingAt(int position) throws IOException {
+		seek(position);
+		readMeeting();
+	}
+
+	/**
+	 * @return the ID of the contact or meeting just read
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return the name of the contact just read
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the notes of the contact or meeting just read (null for a meeting if meeting
+	 *	notes are being skipped)
+	 */
+	public String getNotes() {
+		return notes;
+	}
+
+	/**
+	 * @return where the contact or meeting just skipped starts
+	 */
+	public int getRecordPosition() {
+		return recordPosition;
+	}
+
+	/**
+	 * @return where the notes of the meeting just read start, if meeting notes are being skipped
+	 */
+	public int getNotesPosition() {
+		return notesPosition;
+	}
+
+	/**
+	 * @return the date of the meeting just read, in milliseconds since the epoch
+	 */
+	public long getTimeInMillis() {
+		return timeInMillis;
+	}
+
+	/**
+	 * @return the IDs of the contacts attending the meeting just read, in ascending order
+	 */
+	public int[] getContactIds() {
+		return contactIds;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Makes sure at least the number of bytes given are in the buffer, reading more of the
+	 * file if needed.
+	 * @param bytes the number of bytes needed
+	 * @throws IOException if the file ends first
+	 */
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() >= bytes) {
+			return;
+		}
+		if (channel == null) {
+			throw new EOFException("Data file ends early");
+		}
+		if (bytes > buffer.capacity()) {
+			ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(bytes, buffer.capacity() * 2));
+			larger.put(buffer);
+			buffer = larger;
+		} else {
+			buffer.compact();
+		}
+		while (buffer.position() < bytes) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Data file ends early");
+			}
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Moves to the meetings once every contact has been read or skipped, and checks that
+	 * a meeting is left to read.
+	 * @return true if there is a meeting left to read
+	 * @throws IOException if the file can not be read
+	 */
+	private boolean startMeeting() throws IOException {
+		if (meetingCount < 0) {
+			while (skipContact()) {
+				//skip to the meetings
+			}
+			meetingCount = readVarInt();
+			meetingsLeft = meetingCount;
+		}
+		return meetingsLeft > 0;
+	}
+
+	private void seek(int position) {
+		if (channel != null) {
+			throw new IllegalStateException("Only a whole-file buffer can be read out of order");
+		}
+		buffer.position(position);
+	}
+
+	private void readContact() throws IOException {
+		id = readVarInt();
+		name = readString();
+		notes = readString();
+	}
+
+	private void readMeeting() throws IOException {
+		id = readVarInt();
+		long zigzag = readVarLong();
+		timeInMillis = ((zigzag >>> 1) ^ -(zigzag & 1)) * 60000L;
+		if (skipMeetingNotes) {
+			notesPosition = buffer.position();
+			int length = readVarInt();
+			buffer.position(buffer.position() + length);
+			notes = null;
+		} else {
+			notes = readString();
+		}
+		int count = readVarInt();
+		contactIds = (count == 0) ? NO_CONTACTS : new int[count];
+		int previous = 0;
+		for (int i = 0; i < count; i++) {
+			previous += readVarInt();
+			contactIds[i] = previous;
+		}
+	}
+
+	private void skipString() throws IOException {
+		int length = readVarInt();
+		while (length > 0) {
+			if (!buffer.hasRemaining()) {
+				ensure(1);
+			}
+			int skipped = Math.min(length, buffer.remaining());
+			buffer.position(buffer.position() + skipped);
+			length -= skipped;
+		}
+	}
+
+	private String readString() throws IOException {
+		int length = readVarInt();
+		if (length == 0) {
+			return "";
+		}
+		ensure(length);
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private int readVarInt() throws IOException {
+		return (int) readVarLong();
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		int shift = 0;
+		while (true) {
+			if (!buffer.hasRemaining()) {
+				ensure(1);
+			}
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+			shift += 7;
+		}
+	}
+}
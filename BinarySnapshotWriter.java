@@ -0,0 +1,153 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a ContactManager binary data file.  The file holds, in order:
+ * <ul>
+ * <li>the bytes "CMBS" and a one byte format version</li>
+ * <li>the number of contacts, then for each contact its ID, name and notes</li>
+ * <li>the number of meetings, then for each meeting its ID, its date in minutes since the
+ * epoch, its notes (empty for a future meeting), the number of contacts attending and their
+ * IDs in ascending order, each stored as the difference from the one before</li>
+ * </ul>
+ * Numbers are written as variable length integers (seven bits per byte, the top bit set
+ * when more bytes follow; dates are zigzag encoded first so that dates before 1970 stay short).
+ * Strings are written as their UTF-8 length followed by their UTF-8 bytes.
+ *
+ * Contacts and meetings are written as they are given, so a file of any size can be written
+ * without holding it in memory, but the counts must be known before writing starts.
+ *
+ * @author markkingsbury
+ */
+
+public class BinarySnapshotWriter implements Closeable {
+
+	/**
+	 * The first four bytes of every binary data file.
+	 */
+	public static final byte[] MAGIC = {'C', 'M', 'B', 'S'};
+
+	/**
+	 * The format version written.
+	 */
+	public static final int VERSION = 1;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private FileOutputStream stream;
+	private DataOutputStream out;
+	private int contactsToWrite;
+	private int meetingsToWrite;
+
+	/**
+	 * Starts a binary data file, writing its header and the number of contacts.
+	 * @param file the file to write, replaced if it exists
+	 * @param contactCount the number of contacts that will be written
+	 * @param meetingCount the number of meetings that will be written
+	 * @throws IOException if the header can not be written
+	 */
+	public BinarySnapshotWriter(File file, int contactCount, int meetingCount) throws IOException {
+		this.stream = new FileOutputStream(file);
+		this.out = new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+		this.contactsToWrite = contactCount;
+		this.meetingsToWrite = meetingCount;
+		out.write(MAGIC);
+		out.writeByte(VERSION);
+		writeVarInt(contactCount);
+		if (contactCount == 0) {
+			writeVarInt(meetingCount);
+		}
+	}
+
+	/**
+	 * Writes one contact.  All contacts must be written before any meeting.
+	 * @param id the contact's ID
+	 * @param name the contact's name
+	 * @param notes the contact's notes
+	 * @throws IOException if the contact can not be written
+	 */
+	public void writeContact(int id, String name, String notes) throws IOException {
+		if (contactsToWrite == 0) {
+			throw new IllegalStateException("More contacts written than counted");
+		}
+		writeVarInt(id);
+		writeString(name);
+		writeString(notes);
+		if (--contactsToWrite == 0) {
+			writeVarInt(meetingsToWrite);
+		}
+	}
+
+	/**
+	 * Writes one meeting.
+	 * @param id the meeting's ID
+	 * @param timeInMillis the meeting's date in milliseconds since the epoch (only whole minutes are kept)
+	 * @param notes the meeting's notes, empty for a future meeting
+	 * @param contactIds the IDs of the contacts attending, in ascending order
+	 * @throws IOException if the meeting can not be written
+	 */
+	public void writeMeeting(int id, long timeInMillis, String notes, int[] contactIds) throws IOException {
+		if (contactsToWrite != 0 || meetingsToWrite == 0) {
+			throw new IllegalStateException("Meeting written out of turn");
+		}
+		writeVarInt(id);
+		long minutes = Math.floorDiv(timeInMillis, 60000L);
+		writeVarLong((minutes << 1) ^ (minutes >> 63));
+		writeString(notes);
+		writeVarInt(contactIds.length);
+		int previous = 0;
+		for (int contactId: contactIds) {
+			writeVarInt(contactId - previous);
+			previous = contactId;
+		}
+		meetingsToWrite--;
+	}
+
+	/**
+	 * Finishes the file once every contact and meeting counted has been written, forcing its
+	 * contents to disk.
+	 * @throws IOException if the file can not be finished
+	 */
+	public void finish() throws IOException {
+		if (contactsToWrite != 0 || meetingsToWrite != 0) {
+			throw new IllegalStateException("Fewer contacts or meetings written than counted");
+		}
+		out.flush();
+		stream.getChannel().force(false);
+	}
+
+	/**
+	 * Closes the file.  A file closed without finish() is incomplete.
+	 */
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	private void writeString(String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private void writeVarInt(int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private void writeVarLong(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+}
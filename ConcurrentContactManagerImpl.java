@@ -0,0 +1,784 @@
+import java.io.File;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A ContactManagerImpl that can be shared between threads.
+ *
+ * Queries take a read lock so any number of them run at once; methods that add or change
+ * contacts and meetings, and flush(), take the write lock, so IDs are allocated one at a
+ * time and a date can only be taken by one meeting.  getMeeting() and getContacts(int...)
+ * first try an optimistic read, which takes no lock at all and is only repeated under the
+ * read lock if a write happened meanwhile.  The forEach and stream queries copy their
+ * meetings a chunk at a time under the read lock, so they stay lazy and never hold the lock
+ * while the caller's code runs.
+ *
+ * FutureMeetings that have become due are migrated under the write lock before a query
+ * takes its read lock, so a query only waits for writers when there is migration to do.
+ * startBackgroundMigration() also migrates them on a background thread as they fall due,
+ * so that queries seldom find any migration left to do.
+ *
+ * @author markkingsbury
+ */
+
+public class ConcurrentContactManagerImpl extends ContactManagerImpl {
+
+	//the number of meetings a stream or forEach copies under the read lock at a time
+	private static final int CHUNK_SIZE = 64;
+
+	private StampedLock lock = new StampedLock();
+	private ScheduledExecutorService migrationExecutor;
+	private ScheduledFuture<?> scheduledMigration;
+	private long scheduledMigrationTime;
+
+	/**
+	 * Normal, in use, constructor. Time will be as 'real world'.
+	 */
+	public ConcurrentContactManagerImpl() {
+		this(0, PersistenceMode.TEXT_SNAPSHOT);
+	}
+
+	/**
+	 * Special time adjusting constructor to allow testing (see ContactManagerImpl(long)).
+	 *
+	 * @param daysToAddToClockForTesting the number of days to be added to the ContactManager clock
+	 */
+	public ConcurrentContactManagerImpl(long daysToAddToClockForTesting) {
+		this(daysToAddToClockForTesting, PersistenceMode.TEXT_SNAPSHOT);
+	}
+
+	/**
+	 * Constructor choosing how data is saved to disk. Time will be as 'real world'.
+	 *
+	 * @param persistenceMode how flush() saves the data
+	 */
+	public ConcurrentContactManagerImpl(PersistenceMode persistenceMode) {
+		this(0, persistenceMode);
+	}
+
+	/**
+	 * Constructor choosing how data is saved to disk, with the clock adjusted for testing.
+	 *
+	 * @param daysToAddToClockForTesting the number of days to be added to the ContactManager clock
+	 * @param persistenceMode how flush() saves the data
+	 */
+	public ConcurrentContactManagerImpl(long daysToAddToClockForTesting, PersistenceMode persistenceMode) {
+		super(daysToAddToClockForTesting, persistenceMode);
+		//reads share the lock, so nothing may be left for a read to decode or index
+		finishLoading();
+	}
+
+	@Override
+	public int addFutureMeeting(Set<Contact> contacts, Calendar date) {
+		long stamp = lock.writeLock();
+		try {
+			int meetingId = super.addFutureMeeting(contacts, date);
+			scheduleMigration();
+			return meetingId;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public int addFutureMeeting(Set<Contact> contacts, Instant date) {
+		long stamp = lock.writeLock();
+		try {
+			int meetingId = super.addFutureMeeting(contacts, date);
+			scheduleMigration();
+			return meetingId;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public PastMeeting getPastMeeting(int id) {
+		long stamp = readLockMigrated();
+		try {
+			return super.getPastMeeting(id);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public FutureMeeting getFutureMeeting(int id) {
+		long stamp = readLockMigrated();
+		try {
+			return super.getFutureMeeting(id);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * The lookup is timed once, for the answer returned, however many times it is read.
+	 */
+	@Override
+	public Meeting getMeeting(int id) {
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		try {
+			//the ID index publishes its whole table at once, so an optimistic read of it can not fail
+			long stamp = lock.tryOptimisticRead();
+			Meeting result = (stamp != 0L) ? lookupMeeting(id) : null;
+			if (!lock.validate(stamp)) {
+				stamp = lock.readLock();
+				try {
+					result = lookupMeeting(id);
+				} finally {
+					lock.unlockRead(stamp);
+				}
+			}
+			return result;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.GET_MEETING, timed, start, 0);
+		}
+	}
+
+
+	@Override
+	public List<Meeting> getFutureMeetingList(Contact contact) {
+		long stamp = readLockMigrated();
+		try {
+			return super.getFutureMeetingList(contact);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public List<Meeting> getFutureMeetingList(Calendar date) {
+		long stamp = readLockMigrated();
+		try {
+			return super.getFutureMeetingList(date);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public List<Meeting> getFutureMeetingList(LocalDate date) {
+		long stamp = readLockMigrated();
+		try {
+			return super.getFutureMeetingList(date);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public List<Meeting> getMeetingList(Calendar from, Calendar to) {
+		long stamp = readLockMigrated();
+		try {
+			return super.getMeetingList(from, to);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public List<Meeting> getMeetingList(Instant from, Instant to) {
+		long stamp = readLockMigrated();
+		try {
+			return super.getMeetingList(from, to);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public List<PastMeeting> getPastMeetingList(Contact contact) {
+		long stamp = readLockMigrated();
+		try {
+			return super.getPastMeetingList(contact);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * The meetings are copied a chunk at a time under the read lock and passed to the action
+	 * with the lock released, so the action may itself use this ContactManager.  Meetings
+	 * added while the walk is under way are seen if they fall after the chunks already copied.
+	 */
+	@Override
+	public void forEachFutureMeeting(Contact contact, Consumer<? super Meeting> action) {
+		forEachMeeting(() -> new ChunkSpliterator<Meeting>(contact, true), action);
+	}
+
+	/**
+	 * The meetings are copied a chunk at a time under the read lock, as for
+	 * forEachFutureMeeting().
+	 */
+	@Override
+	public void forEachPastMeeting(Contact contact, Consumer<? super PastMeeting> action) {
+		forEachMeeting(() -> new ChunkSpliterator<PastMeeting>(contact, false), action);
+	}
+
+	/**
+	 * The stream copies the meetings a chunk at a time under the read lock as it reaches
+	 * them, as a lazy stream could not hold the lock until it is used.  Unlike
+	 * ContactManagerImpl's streams it does not fail if CM changes while it is in use:
+	 * meetings added meanwhile are seen if they fall after the chunks already copied.
+	 */
+	@Override
+	public Stream<Meeting> futureMeetings(Contact contact) {
+		return meetingStream(() -> new ChunkSpliterator<Meeting>(contact, true));
+	}
+
+	/**
+	 * The stream copies the meetings a chunk at a time, as for futureMeetings().
+	 */
+	@Override
+	public Stream<PastMeeting> pastMeetings(Contact contact) {
+		return meetingStream(() -> new ChunkSpliterator<PastMeeting>(contact, false));
+	}
+
+	@Override
+	public MeetingPage<Meeting> getFutureMeetingPage(Contact contact, String cursor, int pageSize) {
+		long stamp = readLockMigrated();
+		try {
+			return super.getFutureMeetingPage(contact, cursor, pageSize);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public MeetingPage<PastMeeting> getPastMeetingPage(Contact contact, String cursor, int pageSize) {
+		long stamp = readLockMigrated();
+		try {
+			return super.getPastMeetingPage(contact, cursor, pageSize);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public List<Meeting> getMeetingsWithAll(Set<Contact> contacts) {
+		long stamp = readLockMigrated();
+		try {
+			return super.getMeetingsWithAll(contacts);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public List<Meeting> getMeetingsWithAny(Set<Contact> contacts) {
+		long stamp = readLockMigrated();
+		try {
+			return super.getMeetingsWithAny(contacts);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public List<Contact> getTopCollaborators(Contact contact, int n) {
+		long stamp = lock.readLock();
+		try {
+			return super.getTopCollaborators(contact, n);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public int countMeetings(Contact contact, Instant from, Instant to) {
+		long stamp = lock.readLock();
+		try {
+			return super.countMeetings(contact, from, to);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public Meeting nextMeeting(Contact contact) {
+		long stamp = readLockMigrated();
+		try {
+			return super.nextMeeting(contact);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public PastMeeting lastMeeting(Contact contact) {
+		long stamp = readLockMigrated();
+		try {
+			return super.lastMeeting(contact);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public SortedMap<YearMonth, Integer> countMeetingsByMonth(YearMonth from, YearMonth to) {
+		long stamp = lock.readLock();
+		try {
+			return super.countMeetingsByMonth(from, to);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * The stream copies the meetings a chunk at a time, as for futureMeetings().
+	 */
+	@Override
+	public Stream<Meeting> meetings(Instant from, Instant to) {
+		if (from == null || to == null) {
+			throw new NullPointerException("Dates may not be null");
+		}
+		if (to.isBefore(from)) {
+			throw new IllegalArgumentException("End date is before start date");
+		}
+		return meetingStream(() -> new ChunkSpliterator<Meeting>(from.toEpochMilli(), to.toEpochMilli()));
+	}
+
+	@Override
+	public void addNewPastMeeting(Set<Contact> contacts, Calendar date, String text) {
+		long stamp = lock.writeLock();
+		try {
+			super.addNewPastMeeting(contacts, date, text);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public void addNewPastMeeting(Set<Contact> contacts, Instant date, String text) {
+		long stamp = lock.writeLock();
+		try {
+			super.addNewPastMeeting(contacts, date, text);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public void addMeetingNotes(int id, String text) {
+		long stamp = lock.writeLock();
+		try {
+			super.addMeetingNotes(id, text);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public void addNewContact(String name, String notes) {
+		long stamp = lock.writeLock();
+		try {
+			super.addNewContact(name, notes);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public IdRange addNewContacts(Collection<NewContact> contacts) {
+		long stamp = lock.writeLock();
+		try {
+			return super.addNewContacts(contacts);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public IdRange addMeetings(Collection<NewMeeting> meetings) {
+		long stamp = lock.writeLock();
+		try {
+			IdRange meetingIds = super.addMeetings(meetings);
+			scheduleMigration();
+			return meetingIds;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * The lookup is timed once, for the answer returned, however many times it is read.
+	 */
+	@Override
+	public Set<Contact> getContacts(int... ids) {
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		try {
+			Set<Contact> result = null;
+			long stamp = lock.tryOptimisticRead();
+			if (stamp != 0L) {
+				try {
+					result = lookupContacts(ids);
+				} catch (RuntimeException ex) {
+					//an unknown ID, or a contact added meanwhile seen before its fields (its
+					//hashCode() can then fail); reading again under the lock gives the right answer
+				}
+			}
+			if (result == null || !lock.validate(stamp)) {
+				stamp = lock.readLock();
+				try {
+					result = lookupContacts(ids);
+				} finally {
+					lock.unlockRead(stamp);
+				}
+			}
+			return result;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.GET_CONTACTS_BY_ID, timed, start, ids.length);
+		}
+	}
+
+
+	@Override
+	public Set<Contact> getContacts(String name) {
+		long stamp = lock.readLock();
+		try {
+			return super.getContacts(name);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public List<Contact> getContactsByPrefix(String prefix, int limit) {
+		long stamp = lock.readLock();
+		try {
+			return super.getContactsByPrefix(prefix, limit);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public Set<Contact> searchContactNotes(String query) {
+		long stamp = lock.readLock();
+		try {
+			return super.searchContactNotes(query);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public List<PastMeeting> searchMeetingNotes(String query) {
+		long stamp = lock.readLock();
+		try {
+			return super.searchMeetingNotes(query);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Takes the write lock, as in JOURNAL mode flushing changes the journal and the data
+	 * files are written to one temporary file.
+	 */
+	@Override
+	public void flush() {
+		long stamp = lock.writeLock();
+		try {
+			super.flush();
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public void exportText(File file) {
+		long stamp = lock.readLock();
+		try {
+			super.exportText(file);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Journals notes added to a contact under the write lock.
+	 */
+	@Override
+	void contactNotesAdded(ContactImpl contact, String note) {
+		long stamp = lock.writeLock();
+		try {
+			super.contactNotesAdded(contact, note);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Starts migrating FutureMeetings on a background (daemon) thread as they fall due.  The
+	 * thread sleeps until the date of the next FutureMeeting, migrates every meeting due under
+	 * the write lock, and then sleeps until the next; adding an earlier FutureMeeting wakes
+	 * it sooner.  Queries still migrate any meeting due that the thread has not yet reached.
+	 * Calling this again while migration is running has no effect.
+	 */
+	public void startBackgroundMigration() {
+		long stamp = lock.writeLock();
+		try {
+			if (migrationExecutor == null) {
+				migrationExecutor = Executors.newSingleThreadScheduledExecutor(task -> {
+					Thread thread = new Thread(task, "ContactManager migration");
+					thread.setDaemon(true);
+					return thread;
+				});
+				scheduleMigration();
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Stops migrating FutureMeetings in the background, if it was started; they are then
+	 * migrated by queries alone, as before startBackgroundMigration() was called.
+	 */
+	public void stopBackgroundMigration() {
+		long stamp = lock.writeLock();
+		try {
+			if (migrationExecutor != null) {
+				migrationExecutor.shutdownNow();
+				migrationExecutor = null;
+				scheduledMigration = null;
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Schedules the background migration for just after the date of the next FutureMeeting,
+	 * unless it is already scheduled for then or earlier.  Called with the write lock held.
+	 */
+	private void scheduleMigration() {
+		long next = nextMigrationTime();
+		if (migrationExecutor == null || next == Long.MAX_VALUE
+				|| (scheduledMigration != null && scheduledMigrationTime <= next)) {
+			return;
+		}
+		if (scheduledMigration != null) {
+			scheduledMigration.cancel(false);
+		}
+		//a meeting is migrated once its date is in the past, i.e. a millisecond after it
+		long delay = Math.max(0, next - getNowInMillis() + 1);
+		scheduledMigrationTime = next;
+		scheduledMigration = migrationExecutor.schedule(this::migrateInBackground, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Run on the background thread: migrates the FutureMeetings due under the write lock and
+	 * schedules the next migration.
+	 */
+	private void migrateInBackground() {
+		long stamp = lock.writeLock();
+		try {
+			scheduledMigration = null;
+			super.migrateFutureMeetings();
+			scheduleMigration();
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Called by the queries while they hold the read lock, so it must not change CM; the
+	 * migration itself has been done by readLockMigrated().  If a FutureMeeting has fallen
+	 * due since then, meetings are split into past and future at its date rather than now,
+	 * so that every meeting treated as past really is a PastMeeting.
+	 */
+	@Override
+	long migrateFutureMeetings() {
+		return Math.min(getNowInMillis(), nextMigrationTime());
+	}
+
+	/**
+	 * Passes each meeting a walk reaches to an action, timing the whole walk.
+	 * @param <T> the type of meeting
+	 * @param walk makes the walk
+	 * @param action the action
+	 */
+	private <T extends Meeting> void forEachMeeting(Supplier<ChunkSpliterator<T>> walk, Consumer<? super T> action) {
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			ChunkSpliterator<T> meetings = walk.get();
+			if (action == null) {
+				throw new NullPointerException("Action may not be null");
+			}
+			meetings.forEachRemaining(action);
+			scanned = meetings.copied;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.FOR_EACH_MEETING, timed, start, scanned);
+		}
+	}
+
+	/**
+	 * Makes a stream of the meetings a walk reaches, timing its creation as
+	 * ContactManagerImpl does.
+	 * @param <T> the type of meeting
+	 * @param walk makes the walk
+	 * @return the stream
+	 */
+	private <T extends Meeting> Stream<T> meetingStream(Supplier<ChunkSpliterator<T>> walk) {
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		try {
+			return StreamSupport.stream(walk.get(), false);
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.MEETING_STREAM, timed, start, 0);
+		}
+	}
+
+	/**
+	 * Walks the meetings in a period, of one contact or of everyone, copying them a chunk at a
+	 * time under the read lock (see ContactManagerImpl.copyMeetings()).  Each chunk carries on
+	 * from just after the date of the last meeting copied, which stays right however many
+	 * meetings are added meanwhile, as no two meetings share a date.  The first chunk is
+	 * copied when the walk is made, so an unknown contact is reported then, and past and
+	 * future are split at the time the first chunk is copied.
+	 * @param <T> the type of meeting walked
+	 */
+	private class ChunkSpliterator<T extends Meeting> implements Spliterator<T> {
+
+		private Contact contact;
+		private long from;
+		private long to;
+		private MeetingImpl[] chunk = new MeetingImpl[CHUNK_SIZE];
+		private int count;
+		private int next;
+		private int copied;
+
+		/**
+		 * Walks a contact's future or past meetings.
+		 * @param contact the contact
+		 * @param future true for the future meetings, false for the past ones
+		 * @throws IllegalArgumentException if the contact is not held by CM
+		 */
+		private ChunkSpliterator(Contact contact, boolean future) {
+			if (contact == null) {
+				throw new IllegalArgumentException("Contact unknown");
+			}
+			this.contact = contact;
+			long stamp = readLockMigrated();
+			try {
+				long now = migrateFutureMeetings();
+				this.from = future ? now : Long.MIN_VALUE;
+				this.to = future ? Long.MAX_VALUE : now;
+				copyChunk();
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * Walks every meeting in a period.
+		 * @param from the start of the period (inclusive), in milliseconds since the epoch
+		 * @param to the end of the period (exclusive), no earlier than the start
+		 */
+		private ChunkSpliterator(long from, long to) {
+			this.contact = null;
+			this.from = from;
+			this.to = to;
+			long stamp = readLockMigrated();
+			try {
+				copyChunk();
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public boolean tryAdvance(Consumer<? super T> action) {
+			if (next == count) {
+				if (count < chunk.length) {
+					return false;
+				}
+				long stamp = lock.readLock();
+				try {
+					copyChunk();
+				} finally {
+					lock.unlockRead(stamp);
+				}
+				if (count == 0) {
+					return false;
+				}
+			}
+			MeetingImpl meeting = chunk[next];
+			//the chunk does not hold on to meetings already passed on
+			chunk[next++] = null;
+			action.accept((T) meeting);
+			return true;
+		}
+
+		@Override
+		public Spliterator<T> trySplit() {
+			return null;
+		}
+
+		@Override
+		public long estimateSize() {
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL;
+		}
+
+		/**
+		 * Copies the next chunk, under the read lock, and moves the start of the period
+		 * past it.
+		 */
+		private void copyChunk() {
+			count = copyMeetings(contact, from, to, chunk);
+			next = 0;
+			copied += count;
+			if (count > 0) {
+				from = chunk[count - 1].getTimeInMillis() + 1;
+			}
+		}
+	}
+
+	/**
+	 * Takes the read lock, first migrating any FutureMeetings that are due under the write
+	 * lock.  The write lock is then downgraded so no other writer can get in between.
+	 * @return the stamp of the read lock
+	 */
+	private long readLockMigrated() {
+		long stamp = lock.readLock();
+		if (nextMigrationTime() < getNowInMillis()) {
+			long writeStamp = lock.tryConvertToWriteLock(stamp);
+			if (writeStamp == 0L) {
+				lock.unlockRead(stamp);
+				writeStamp = lock.writeLock();
+			}
+			super.migrateFutureMeetings();
+			stamp = lock.tryConvertToReadLock(writeStamp);
+		}
+		return stamp;
+	}
+}
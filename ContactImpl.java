@@ -12,7 +12,22 @@ public class ContactImpl implements Contact {
 	
 	private int contactId;
 	private String contactName;
-	private String contactNotes;
+	private volatile String contactNotes;
+	private NotesListener notesListener;
+	
+	/**
+	 * Told when notes are added to a contact, so that the ContactManager holding the contact
+	 * can record the change.
+	 */
+	public interface NotesListener {
+		
+		/**
+		 * Called after notes have been added to the contact.
+		 * @param contact the contact whose notes have changed
+		 * @param note the notes that were added
+		 */
+		void notesAdded(ContactImpl contact, String note);
+	}
 	
 	/**
 	 * Constructor that deals with ID, name and notes.
@@ -43,13 +58,39 @@ public class ContactImpl implements Contact {
 		return contactNotes;
 	}
 
+	/**
+	 * Notes may be added from several threads at once (see ConcurrentContactManagerImpl)
+	 * without any being lost.
+	 */
 	@Override
 	public void addNotes(String note) {
-		if(this.contactNotes == "") {
-			this.contactNotes = note;
-		} else {
-			this.contactNotes += " " + note;
-		}	
+		synchronized(this) {
+			if(this.contactNotes == "") {
+				this.contactNotes = note;
+			} else {
+				this.contactNotes += " " + note;
+			}
+		}
+		if(notesListener != null) {
+			notesListener.notesAdded(this, note);
+		}
+	}
+	
+	/**
+	 * Sets the listener told about notes added to this contact (one listener per contact).
+	 * @param listener the listener, or null for none
+	 */
+	void setNotesListener(NotesListener listener) {
+		this.notesListener = listener;
+	}
+	
+	/**
+	 * Replaces the contact's notes with notes already recorded elsewhere, for example when
+	 * ContactManager replays its journal.  Listeners are not told.
+	 * @param notes the notes the contact should have
+	 */
+	void restoreNotes(String notes) {
+		this.contactNotes = notes;
 	}
 	
 	/**
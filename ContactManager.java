@@ -1,6 +1,13 @@
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.Calendar; 
+import java.util.Collection;
 import java.util.List; 
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
 * A class to manage your contacts and meetings. 
@@ -19,6 +26,18 @@ public interface ContactManager {
 	*/
 	int addFutureMeeting(Set<Contact> contacts, Calendar date); 
 	
+	/**
+	* Add a new meeting to be held in the future. 
+	*
+	* @param contacts a list of contacts that will participate in the meeting
+	* @param date the instant at which the meeting will take place
+	* @return the ID for the meeting
+	* @throws IllegalArgumentException if the meeting is set for a time in the past,
+	*	of if any contact is unknown / non-existent
+	* @see #addFutureMeeting(Set, Calendar)
+	*/
+	int addFutureMeeting(Set<Contact> contacts, Instant date);
+	
 	/**
 	* Returns the PAST meeting with the requested ID, or null if it there is none. 
 	*
@@ -71,6 +90,47 @@ public interface ContactManager {
 	*/
 	List<Meeting> getFutureMeetingList(Calendar date);
 	
+	/**
+	* Returns the list of meetings that are scheduled for, or that took
+	* place on, the specified day.  The day runs from midnight to midnight
+	* in the time zone that was the default when the ContactManager was
+	* created, as for countMeetingsByMonth.
+	*
+	* @param date the day
+	* @return the list of meetings 
+	* @see #getFutureMeetingList(Calendar)
+	*/
+	List<Meeting> getFutureMeetingList(LocalDate date);
+	
+	/**
+	* Returns the list of meetings that are scheduled for, or that took
+	* place, from the first date up to (but not including) the second date.
+	*
+	* If there are none, the returned list will be empty. Otherwise,
+	* the list will be chronologically sorted and will not contain any 
+	* duplicates.
+	*
+	* @param from the start of the period (inclusive)
+	* @param to the end of the period (exclusive)
+	* @return the list of meetings
+	* @throws NullPointerException if either date is null
+	* @throws IllegalArgumentException if the end of the period is before its start
+	*/
+	List<Meeting> getMeetingList(Calendar from, Calendar to);
+	
+	/**
+	* Returns the list of meetings that are scheduled for, or that took
+	* place, from the first instant up to (but not including) the second.
+	*
+	* @param from the start of the period (inclusive)
+	* @param to the end of the period (exclusive)
+	* @return the list of meetings
+	* @throws NullPointerException if either instant is null
+	* @throws IllegalArgumentException if the end of the period is before its start
+	* @see #getMeetingList(Calendar, Calendar)
+	*/
+	List<Meeting> getMeetingList(Instant from, Instant to);
+	
 	/**
 	* Returns the list of past meetings in which this contact has participated. 
 	* 
@@ -84,6 +144,180 @@ public interface ContactManager {
 	*/
 	List<PastMeeting> getPastMeetingList(Contact contact);
 	
+	/**
+	* Passes each future meeting scheduled with this contact to the action, in
+	* chronological order, without building a list.  The meetings are those
+	* getFutureMeetingList(Contact) would return.
+	*
+	* @param contact one of the user’s contacts
+	* @param action what to do with each meeting; it may not change the ContactManager
+	* @throws IllegalArgumentException if the contact does not exist
+	* @throws NullPointerException if the action is null
+	*/
+	void forEachFutureMeeting(Contact contact, Consumer<? super Meeting> action);
+	
+	/**
+	* Passes each past meeting in which this contact has participated to the
+	* action, in chronological order, without building a list.  The meetings
+	* are those getPastMeetingList(Contact) would return.
+	*
+	* @param contact one of the user’s contacts
+	* @param action what to do with each meeting; it may not change the ContactManager
+	* @throws IllegalArgumentException if the contact does not exist
+	* @throws NullPointerException if the action is null
+	*/
+	void forEachPastMeeting(Contact contact, Consumer<? super PastMeeting> action);
+	
+	/**
+	* Returns the future meetings scheduled with this contact as a stream in
+	* chronological order.  Meetings are only looked up as the stream reaches
+	* them, so operations such as limit() and findFirst() stop early.  The
+	* stream should be used before the ContactManager is next changed.
+	*
+	* @param contact one of the user’s contacts
+	* @return the meetings getFutureMeetingList(Contact) would return
+	* @throws IllegalArgumentException if the contact does not exist
+	*/
+	Stream<Meeting> futureMeetings(Contact contact);
+	
+	/**
+	* Returns the past meetings in which this contact has participated as a
+	* stream in chronological order, looked up as for futureMeetings(Contact).
+	*
+	* @param contact one of the user’s contacts
+	* @return the meetings getPastMeetingList(Contact) would return
+	* @throws IllegalArgumentException if the contact does not exist
+	* @see #futureMeetings(Contact)
+	*/
+	Stream<PastMeeting> pastMeetings(Contact contact);
+	
+	/**
+	* Returns one page of the future meetings scheduled with this contact, in
+	* chronological order.  The first page is asked for with a null cursor,
+	* and each later page with the cursor returned with the page before it.
+	* A cursor marks the last meeting returned, so meetings added or migrated
+	* between pages do not cause meetings to be skipped or repeated.
+	*
+	* @param contact one of the user’s contacts
+	* @param cursor null for the first page, otherwise the cursor from the previous page
+	* @param pageSize the most meetings to return
+	* @return the page of meetings, with the cursor for the next page
+	* @throws IllegalArgumentException if the contact does not exist, the cursor
+	* was not returned by this method or the page size is not positive
+	*/
+	MeetingPage<Meeting> getFutureMeetingPage(Contact contact, String cursor, int pageSize);
+	
+	/**
+	* Returns one page of the past meetings in which this contact has
+	* participated, in chronological order, as for getFutureMeetingPage.
+	*
+	* @param contact one of the user’s contacts
+	* @param cursor null for the first page, otherwise the cursor from the previous page
+	* @param pageSize the most meetings to return
+	* @return the page of meetings, with the cursor for the next page
+	* @throws IllegalArgumentException if the contact does not exist, the cursor
+	* was not returned by this method or the page size is not positive
+	* @see #getFutureMeetingPage(Contact, String, int)
+	*/
+	MeetingPage<PastMeeting> getPastMeetingPage(Contact contact, String cursor, int pageSize);
+	
+	/**
+	* Returns the list of meetings, past or future, attended by every one of
+	* the contacts given.
+	*
+	* @param contacts the contacts
+	* @return the list of meetings, in chronological order
+	* @throws IllegalArgumentException if the set is empty or any contact does
+	* not exist
+	* @throws NullPointerException if the set is null
+	*/
+	List<Meeting> getMeetingsWithAll(Set<Contact> contacts);
+	
+	/**
+	* Returns the list of meetings, past or future, attended by at least one
+	* of the contacts given.
+	*
+	* @param contacts the contacts
+	* @return the list of meetings, in chronological order and without duplicates
+	* @throws IllegalArgumentException if the set is empty or any contact does
+	* not exist
+	* @throws NullPointerException if the set is null
+	*/
+	List<Meeting> getMeetingsWithAny(Set<Contact> contacts);
+	
+	/**
+	* Returns the contacts who have attended the most meetings, past or future,
+	* together with this contact.
+	*
+	* @param contact one of the user’s contacts
+	* @param n the most contacts to return
+	* @return up to n contacts, the one met most often first; contacts met
+	* equally often are in order of ID
+	* @throws IllegalArgumentException if the contact does not exist or n is
+	* negative
+	*/
+	List<Contact> getTopCollaborators(Contact contact, int n);
+	
+	/**
+	* Returns the number of meetings, past or future, that this contact
+	* attends from the first instant up to (but not including) the second.
+	*
+	* @param contact one of the user’s contacts
+	* @param from the start of the period (inclusive)
+	* @param to the end of the period (exclusive)
+	* @return the number of meetings
+	* @throws IllegalArgumentException if the contact does not exist or the end
+	* of the period is before its start
+	* @throws NullPointerException if either instant is null
+	*/
+	int countMeetings(Contact contact, Instant from, Instant to);
+	
+	/**
+	* Returns the next meeting scheduled with this contact.
+	*
+	* @param contact one of the user’s contacts
+	* @return the earliest future meeting with the contact, or null if there is none
+	* @throws IllegalArgumentException if the contact does not exist
+	*/
+	Meeting nextMeeting(Contact contact);
+	
+	/**
+	* Returns the most recent past meeting in which this contact participated.
+	*
+	* @param contact one of the user’s contacts
+	* @return the latest past meeting with the contact, or null if there is none
+	* @throws IllegalArgumentException if the contact does not exist
+	*/
+	PastMeeting lastMeeting(Contact contact);
+	
+	/**
+	* Returns the number of meetings, past or future, in each month from the
+	* first month to the second (both included), in the time zone that was the
+	* default when the ContactManager was created.  Every month in the period
+	* is included, with a count of zero if there are no meetings in it.
+	*
+	* @param from the first month
+	* @param to the last month
+	* @return the number of meetings in each month, in chronological order
+	* @throws NullPointerException if either month is null
+	* @throws IllegalArgumentException if the last month is before the first
+	*/
+	SortedMap<YearMonth, Integer> countMeetingsByMonth(YearMonth from, YearMonth to);
+	
+	/**
+	* Returns the meetings from the first instant up to (but not including) the
+	* second as a stream in chronological order, looked up as for
+	* futureMeetings(Contact).
+	*
+	* @param from the start of the period (inclusive)
+	* @param to the end of the period (exclusive)
+	* @return the meetings getMeetingList(Instant, Instant) would return
+	* @throws NullPointerException if either instant is null
+	* @throws IllegalArgumentException if the end of the period is before its start
+	* @see #futureMeetings(Contact)
+	*/
+	Stream<Meeting> meetings(Instant from, Instant to);
+	
 	/**
 	* Create a new record for a meeting that took place in the past 
 	* 
@@ -96,6 +330,19 @@ public interface ContactManager {
 	*/
 	void addNewPastMeeting(Set<Contact> contacts, Calendar date, String text);
 	
+	/**
+	* Create a new record for a meeting that took place in the past 
+	* 
+	* @param contacts a list of participants
+	* @param date the instant at which the meeting took place
+	* @param text messages to be added about the meeting.
+	* @throws IllegalArgumentException if the list of contacts is
+	* 	empty, or any of the contacts does not exist
+	* @throws NullPointerException if any of the arguments is null  
+	* @see #addNewPastMeeting(Set, Calendar, String)
+	*/
+	void addNewPastMeeting(Set<Contact> contacts, Instant date, String text);
+	
 	/**
 	* Add notes to a meeting. 
 	*
@@ -121,6 +368,48 @@ public interface ContactManager {
 	*/
 	void addNewContact(String name, String notes);
 	
+	/**
+	* Create a new contact for each of the contacts given, as addNewContact
+	* would, in one operation.  Every contact is checked before any is added,
+	* so either all of them are added or none are.
+	*
+	* The contacts are given consecutive IDs in the order of the collection,
+	* so the n-th contact (counting from zero) has the ID getFirst() + n of
+	* the range returned.
+	*
+	* @param contacts the names and notes of the contacts to add
+	* @return the IDs of the contacts added
+	* @throws IllegalArgumentException if any name is the empty string
+	* @throws NullPointerException if the collection, any of its contacts,
+	* 	or any name or notes are null
+	* @see #addNewContact(String, String)
+	*/
+	IdRange addNewContacts(Collection<NewContact> contacts);
+	
+	/**
+	* Add each of the meetings given, as addFutureMeeting (for a meeting
+	* without notes) or addNewPastMeeting (for a meeting with notes) would,
+	* in one operation.  Every meeting is checked before any is added, so
+	* either all of them are added or none are.
+	*
+	* The meetings are given consecutive IDs in the order of the collection,
+	* so the n-th meeting (counting from zero) has the ID getFirst() + n of
+	* the range returned.
+	*
+	* @param meetings the meetings to add
+	* @return the IDs of the meetings added
+	* @throws IllegalArgumentException if the set of contacts of any meeting
+	* 	is empty or has a contact that does not exist, if a future meeting's
+	* 	date is in the past or a past meeting's date is in the future, or if
+	* 	two meetings (or a meeting and one already held) are at the same
+	* 	date/time
+	* @throws NullPointerException if the collection, any of its meetings,
+	* 	or any meeting's contacts or date are null
+	* @see #addFutureMeeting(Set, Instant)
+	* @see #addNewPastMeeting(Set, Instant, String)
+	*/
+	IdRange addMeetings(Collection<NewMeeting> meetings);
+	
 	/**
 	* Returns a list containing the contacts that correspond to the IDs
 	* 
@@ -139,6 +428,44 @@ public interface ContactManager {
 	*/
 	Set<Contact> getContacts(String name);
 	
+	/**
+	* Returns the contacts whose name starts with that string, in alphabetical
+	* order of name (contacts with the same name in order of ID), for example
+	* for completing a name as it is typed.  Names are compared character by
+	* character, so upper case letters come before lower case ones.
+	*
+	* @param prefix the start of the names to search for; the empty string
+	* matches every contact
+	* @param limit the most contacts to return
+	* @return a list of at most limit contacts whose name starts with the prefix
+	* @throws NullPointerException if the prefix is null
+	* @throws IllegalArgumentException if the limit is negative
+	*/
+	List<Contact> getContactsByPrefix(String prefix, int limit);
+	
+	/**
+	* Returns the contacts whose notes contain every word of the query.
+	* A word is a run of letters and digits, and words are matched
+	* regardless of case, so "Budget, 2015" finds notes containing both
+	* "budget" and "2015" anywhere.
+	*
+	* @param query the words to search for
+	* @return the contacts found; none if the query has no words
+	* @throws NullPointerException if the query is null
+	*/
+	Set<Contact> searchContactNotes(String query);
+	
+	/**
+	* Returns the past meetings whose notes contain every word of the query,
+	* in chronological order.  Words are matched as for searchContactNotes.
+	*
+	* @param query the words to search for
+	* @return the meetings found; none if the query has no words
+	* @throws NullPointerException if the query is null
+	* @see #searchContactNotes(String)
+	*/
+	List<PastMeeting> searchMeetingNotes(String query);
+	
 	/**
 	* Save all data to disk.
 	* This method must be executed when the program is
@@ -0,0 +1,262 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Measures the cost of each ContactManager operation against a generated store, so that
+ * changes to ContactManagerImpl can be compared before and after.
+ *
+ * Run from an empty directory, as CM keeps its data in ./cw4 (the benchmark will not start if
+ * there is already a data file there, and deletes the files it wrote when it finishes):
+ *
+ *   java ContactManagerBenchmark [contacts] [meetings] [attendees per meeting] [persistence mode]
+ *
+ * or through Maven, which runs it in target/benchmark:
+ *
+ *   mvn -P benchmark verify -DskipTests -Dbenchmark.contacts=1000 -Dbenchmark.meetings=10000
+ *       -Dbenchmark.attendees=4 -Dbenchmark.mode=TEXT_SNAPSHOT
+ *
+ * The defaults are 1000 contacts, 10000 meetings (half past, half future), 4 attendees per
+ * meeting and TEXT_SNAPSHOT.  Each operation is run for a warm-up period and then a measured
+ * period, and the report gives its throughput, the percentiles of its latency and the bytes
+ * allocated for each call (from the JVM's count of bytes allocated by the thread, where the
+ * JVM provides it).
+ *
+ * @author markkingsbury
+ */
+
+public class ContactManagerBenchmark {
+
+	private static final String[] DATA_FILES = {"./cw4/contacts.txt", "./cw4/contacts.log",
+			"./cw4/contacts.bin", "./cw4/contacts.idx"};
+	private static final long WARM_UP_NANOS = 1_000_000_000L;
+	private static final long MEASURE_NANOS = 2_000_000_000L;
+	private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+	private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+	private static volatile int sink;
+
+	private int contactCount;
+	private int meetingCount;
+	private int attendees;
+	private PersistenceMode persistenceMode;
+	private Random random;
+	private ContactManager cm;
+	private Contact[] contacts;
+	private int[] pastMeetingIds;
+
+	/**
+	 * Constructor for a benchmark of a store of the size given.
+	 * @param contactCount the number of contacts
+	 * @param meetingCount the number of meetings
+	 * @param attendees the number of contacts at each meeting
+	 * @param persistenceMode how CM saves its data
+	 */
+	public ContactManagerBenchmark(int contactCount, int meetingCount, int attendees, PersistenceMode persistenceMode) {
+		this.contactCount = contactCount;
+		this.meetingCount = meetingCount;
+		this.attendees = Math.min(attendees, contactCount);
+		this.persistenceMode = persistenceMode;
+		this.random = new Random(42);
+	}
+
+	public static void main(String[] args) {
+		int contactCount = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+		int meetingCount = (args.length > 1) ? Integer.parseInt(args[1]) : 10000;
+		int attendees = (args.length > 2) ? Integer.parseInt(args[2]) : 4;
+		PersistenceMode mode = (args.length > 3) ? PersistenceMode.valueOf(args[3]) : PersistenceMode.TEXT_SNAPSHOT;
+		for (String fileName: DATA_FILES) {
+			if (new File(fileName).exists()) {
+				System.err.println(fileName + " exists, run the benchmark from an empty directory");
+				System.exit(1);
+			}
+		}
+		new File("./cw4").mkdirs();
+		try {
+			new ContactManagerBenchmark(contactCount, meetingCount, attendees, mode).run();
+		} finally {
+			for (String fileName: DATA_FILES) {
+				try {
+					Files.deleteIfExists(new File(fileName).toPath());
+				} catch (IOException ex) {
+					ex.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fills CM with the contacts and meetings, then measures each operation in turn.
+	 */
+	public void run() {
+		populate();
+		System.out.printf("%d contacts, %d meetings, %d attendees per meeting, %s%n%n",
+				contactCount, meetingCount, attendees, persistenceMode);
+		System.out.printf("%-36s %12s %10s %10s %10s %10s %12s%n", "operation", "ops/s",
+				"p50 us", "p90 us", "p99 us", "p99.9 us", "bytes/op");
+		LocalDate today = LocalDate.now();
+		Calendar tomorrow = new GregorianCalendar();
+		tomorrow.add(Calendar.DAY_OF_MONTH, 1);
+		Instant weekAgo = Instant.now().minusMillis(7 * DAY_MILLIS);
+		Instant weekAhead = Instant.now().plusMillis(7 * DAY_MILLIS);
+		Calendar lastWeek = new GregorianCalendar();
+		lastWeek.add(Calendar.DAY_OF_MONTH, -7);
+		Calendar nextWeek = new GregorianCalendar();
+		nextWeek.add(Calendar.DAY_OF_MONTH, 7);
+		YearMonth halfYearAgo = YearMonth.now().minusMonths(6);
+		YearMonth halfYearAhead = YearMonth.now().plusMonths(6);
+		measure("getMeeting(int)", () -> cm.getMeeting(1 + random.nextInt(meetingCount)));
+		measure("getContacts(int...)", () -> cm.getContacts(randomContact().getId(), randomContact().getId()));
+		measure("getContacts(String)", () -> cm.getContacts("Contact " + random.nextInt(contactCount)));
+		measure("getContactsByPrefix(String, int)", () -> cm.getContactsByPrefix("Contact " + random.nextInt(10), 20));
+		measure("getFutureMeetingList(Contact)", () -> cm.getFutureMeetingList(randomContact()));
+		measure("getPastMeetingList(Contact)", () -> cm.getPastMeetingList(randomContact()));
+		measure("getFutureMeetingList(Calendar)", () -> cm.getFutureMeetingList(tomorrow));
+		measure("getFutureMeetingList(LocalDate)", () -> cm.getFutureMeetingList(today));
+		measure("getMeetingList(Calendar, Calendar)", () -> cm.getMeetingList(lastWeek, nextWeek));
+		measure("getMeetingList(Instant, Instant)", () -> cm.getMeetingList(weekAgo, weekAhead));
+		measure("forEachFutureMeeting(Contact, ...)", () -> {
+			long[] sum = new long[1];
+			cm.forEachFutureMeeting(randomContact(), m -> sum[0] += m.getId());
+			return sum[0];
+		});
+		measure("forEachPastMeeting(Contact, ...)", () -> {
+			long[] sum = new long[1];
+			cm.forEachPastMeeting(randomContact(), m -> sum[0] += m.getId());
+			return sum[0];
+		});
+		//the streams are summed rather than counted, as count() may not walk a stream of known size
+		measure("futureMeetings(Contact)", () -> cm.futureMeetings(randomContact()).mapToLong(Meeting::getId).sum());
+		measure("pastMeetings(Contact)", () -> cm.pastMeetings(randomContact()).mapToLong(Meeting::getId).sum());
+		measure("meetings(Instant, Instant)", () -> cm.meetings(weekAgo, weekAhead).mapToLong(Meeting::getId).sum());
+		measure("getFutureMeetingPage(Contact, ...)", () -> cm.getFutureMeetingPage(randomContact(), null, 20));
+		measure("getPastMeetingPage(Contact, ...)", () -> cm.getPastMeetingPage(randomContact(), null, 20));
+		measure("getMeetingsWithAll(Set)", () -> cm.getMeetingsWithAll(randomContacts(2)));
+		measure("getMeetingsWithAny(Set)", () -> cm.getMeetingsWithAny(randomContacts(2)));
+		measure("getTopCollaborators(Contact, int)", () -> cm.getTopCollaborators(randomContact(), 10));
+		measure("countMeetings(Contact, ...)", () -> cm.countMeetings(randomContact(), weekAgo, weekAhead));
+		measure("nextMeeting(Contact)", () -> cm.nextMeeting(randomContact()));
+		measure("lastMeeting(Contact)", () -> cm.lastMeeting(randomContact()));
+		measure("countMeetingsByMonth(YearMonth, ...)", () -> cm.countMeetingsByMonth(halfYearAgo, halfYearAhead));
+		measure("searchMeetingNotes(String)", () -> cm.searchMeetingNotes("topic" + random.nextInt(100)));
+		measure("flush()", () -> {
+			cm.flush();
+			return null;
+		});
+		measure("loadRecords()", () -> new ContactManagerImpl(persistenceMode));
+		//addMeetingNotes appends to the notes, so every call leaves the store larger: it is
+		//measured last, once flush and loadRecords have been measured on the store as populated
+		measure("addMeetingNotes(int, String)", () -> {
+			cm.addMeetingNotes(pastMeetingIds[random.nextInt(pastMeetingIds.length)], ".");
+			return null;
+		});
+	}
+
+	/**
+	 * Adds the contacts, then the meetings: the past ones a minute apart going back from
+	 * yesterday, and the future ones a minute apart from tomorrow, each with attendees chosen
+	 * at random and notes naming one of a hundred topics.
+	 */
+	private void populate() {
+		cm = new ContactManagerImpl(persistenceMode);
+		for (int i = 0; i < contactCount; i++) {
+			cm.addNewContact("Contact " + i, "notes on contact " + i);
+		}
+		contacts = new Contact[contactCount];
+		for (int i = 0; i < contactCount; i++) {
+			contacts[i] = cm.getContacts(i + 1).iterator().next();
+		}
+		long now = System.currentTimeMillis();
+		int pastCount = meetingCount / 2;
+		pastMeetingIds = new int[Math.max(1, pastCount)];
+		for (int i = 0; i < meetingCount; i++) {
+			if (i < pastCount) {
+				cm.addNewPastMeeting(randomContacts(attendees), Instant.ofEpochMilli(now - DAY_MILLIS - i * 60_000L),
+						"meeting about topic" + random.nextInt(100));
+				pastMeetingIds[i] = i + 1;
+			} else {
+				cm.addFutureMeeting(randomContacts(attendees), Instant.ofEpochMilli(now + DAY_MILLIS + i * 60_000L));
+			}
+		}
+		cm.flush();
+	}
+
+	/**
+	 * Runs an operation repeatedly for the warm-up period, then for the measured period timing
+	 * each call, and prints the results.
+	 * @param name the name of the operation
+	 * @param operation the operation, returning its result
+	 */
+	private void measure(String name, Supplier<Object> operation) {
+		long end = System.nanoTime() + WARM_UP_NANOS;
+		while (System.nanoTime() < end) {
+			consume(operation.get());
+		}
+		long[] latencies = new long[1024];
+		int calls = 0;
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		end = start + MEASURE_NANOS;
+		long finished = start;
+		while (finished < end) {
+			long callStart = System.nanoTime();
+			consume(operation.get());
+			finished = System.nanoTime();
+			if (calls == latencies.length) {
+				latencies = Arrays.copyOf(latencies, calls * 2);
+			}
+			latencies[calls++] = finished - callStart;
+		}
+		long allocated = allocatedBytes() - allocatedBefore;
+		Arrays.sort(latencies, 0, calls);
+		System.out.printf("%-36s %12.0f", name, calls * 1e9 / (finished - start));
+		for (double percentile: PERCENTILES) {
+			int index = Math.min(calls - 1, (int) Math.ceil(percentile / 100 * calls) - 1);
+			System.out.printf(" %10.1f", latencies[index] / 1e3);
+		}
+		System.out.printf(" %12s%n", (allocatedBefore < 0) ? "n/a" : String.valueOf(allocated / calls));
+	}
+
+	/**
+	 * @return the number of bytes the current thread has allocated, or -1 if the JVM
+	 * does not count them
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/**
+	 * Keeps the result of an operation reachable so that the call can not be optimised away.
+	 * @param result the result
+	 */
+	private static void consume(Object result) {
+		sink ^= System.identityHashCode(result);
+	}
+
+	private Contact randomContact() {
+		return contacts[random.nextInt(contactCount)];
+	}
+
+	private Set<Contact> randomContacts(int count) {
+		Set<Contact> chosen = new HashSet<Contact>();
+		while (chosen.size() < count) {
+			chosen.add(randomContact());
+		}
+		return chosen;
+	}
+}
@@ -0,0 +1,390 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+
+/**
+ * Generates ContactManager data files of any size, for benchmarks and load tests, either as a
+ * text data file in the format flush() writes or as a binary data file (see
+ * BinarySnapshotWriter).  The same settings and seed always give the same contacts and
+ * meetings, in either format.
+ *
+ * Contacts get a random name and notes.  Meetings are given dates a fixed number of minutes
+ * apart, the past ones ending a day before the reference time and the future ones starting a
+ * day after it, and meeting IDs follow date order.  The number of contacts at each meeting is
+ * drawn from a weighted set of sizes and the contacts are chosen at random.
+ * Records are written as they are generated, so memory use does not depend on the size of
+ * the file.
+ *
+ * From the command line, settings are given as name=value:
+ *
+ *   java ContactManagerDataGenerator contacts=100000 meetings=10000000 attendees=2:40,3:30,5:20,10:10
+ *       past=0.8 notes=200 seed=1 spacing=1 format=text|binary|both dir=./cw4
+ *
+ * The journal and notes index in the directory are deleted, as they would not match the new
+ * data file.
+ *
+ * @author markkingsbury
+ */
+
+public class ContactManagerDataGenerator {
+
+	private static final String CSV_SPLIT_STRING = "\",\"";
+	private static final long MINUTE_MILLIS = 60000L;
+	private static final long DAY_MILLIS = 24 * 60 * MINUTE_MILLIS;
+	private static final String[] FIRST_NAMES = {"Anna", "Brian", "Cathy", "David", "Emma", "Frank",
+			"Grace", "Henry", "Isla", "Jack", "Kate", "Liam", "Mia", "Noah", "Olivia", "Peter"};
+	private static final String[] LAST_NAMES = {"Jones", "Kingsbury", "Smith", "Taylor", "Brown",
+			"Wilson", "Evans", "Thomas", "Roberts", "Walker", "Wright", "Green", "Hall", "Wood"};
+	private static final String[] WORDS = {"budget", "review", "plan", "project", "client", "call",
+			"follow", "up", "agreed", "next", "steps", "report", "contract", "design", "team", "launch",
+			"risk", "deadline", "sales", "update", "meeting", "notes", "action", "owner", "quarter"};
+
+	/**
+	 * Receives the records as they are generated.
+	 */
+	private interface RecordSink {
+		/**
+		 * Takes the next contact, in order of ID.
+		 */
+		void contact(int id, String name, String notes) throws IOException;
+
+		/**
+		 * Takes the next meeting, in date order, once all the contacts have been taken.
+		 */
+		void meeting(int id, long timeInMillis, String notes, int[] contactIds) throws IOException;
+	}
+
+	private int contactCount;
+	private int meetingCount;
+	private long seed;
+	private int[] attendeeSizes;
+	private int[] attendeeWeights;
+	private double pastFraction;
+	private int notesLength;
+	private int minutesApart;
+	private long referenceTime;
+
+	/**
+	 * Constructor for a generator of the number of contacts and meetings given.  Unless set
+	 * otherwise, meetings have 2 to 10 contacts (mostly 2 or 3), half are in the past, notes
+	 * are about 100 characters, meetings are 5 minutes apart and the reference time is now.
+	 * @param contactCount the number of contacts
+	 * @param meetingCount the number of meetings
+	 * @param seed the seed for the random choices
+	 */
+	public ContactManagerDataGenerator(int contactCount, int meetingCount, long seed) {
+		if (contactCount < 1) {
+			throw new IllegalArgumentException("Need at least one contact");
+		}
+		if (meetingCount < 0) {
+			throw new IllegalArgumentException("Number of meetings may not be negative");
+		}
+		this.contactCount = contactCount;
+		this.meetingCount = meetingCount;
+		this.seed = seed;
+		setAttendeeSizes(new int[] {2, 3, 4, 6, 10}, new int[] {40, 30, 15, 10, 5});
+		this.pastFraction = 0.5;
+		this.notesLength = 100;
+		this.minutesApart = 5;
+		this.referenceTime = Math.floorDiv(System.currentTimeMillis(), MINUTE_MILLIS) * MINUTE_MILLIS;
+	}
+
+	/**
+	 * Sets how many contacts attend each meeting: each size is chosen with a chance
+	 * proportional to its weight.  Sizes larger than the number of contacts are reduced to it.
+	 * @param sizes the numbers of contacts
+	 * @param weights the weight of each size
+	 */
+	public void setAttendeeSizes(int[] sizes, int[] weights) {
+		if (sizes.length == 0 || sizes.length != weights.length) {
+			throw new IllegalArgumentException("Each attendee size needs a weight");
+		}
+		this.attendeeSizes = new int[sizes.length];
+		this.attendeeWeights = new int[weights.length];
+		int total = 0;
+		for (int i = 0; i < sizes.length; i++) {
+			if (sizes[i] < 1 || weights[i] < 0) {
+				throw new IllegalArgumentException("Attendee sizes must be positive");
+			}
+			attendeeSizes[i] = Math.min(sizes[i], contactCount);
+			total += weights[i];
+			attendeeWeights[i] = total;
+		}
+		if (total == 0) {
+			throw new IllegalArgumentException("Attendee weights may not all be zero");
+		}
+	}
+
+	/**
+	 * @param pastFraction the fraction of meetings in the past, from 0 to 1
+	 */
+	public void setPastFraction(double pastFraction) {
+		if (!(pastFraction >= 0 && pastFraction <= 1)) {
+			throw new IllegalArgumentException("Past fraction must be from 0 to 1");
+		}
+		this.pastFraction = pastFraction;
+	}
+
+	/**
+	 * @param notesLength the approximate length of the notes of each contact and past meeting
+	 */
+	public void setNotesLength(int notesLength) {
+		this.notesLength = notesLength;
+	}
+
+	/**
+	 * @param minutesApart the number of minutes between one meeting and the next
+	 */
+	public void setMinutesApart(int minutesApart) {
+		if (minutesApart < 1) {
+			throw new IllegalArgumentException("Meetings must be at least a minute apart");
+		}
+		this.minutesApart = minutesApart;
+	}
+
+	/**
+	 * Sets the time the past and future meetings are placed around; setting it makes the
+	 * files generated the same from one day to the next.
+	 * @param referenceTime in milliseconds since the epoch
+	 */
+	public void setReferenceTime(long referenceTime) {
+		this.referenceTime = Math.floorDiv(referenceTime, MINUTE_MILLIS) * MINUTE_MILLIS;
+	}
+
+	/**
+	 * Writes a text data file.
+	 * @param file the file to write, replaced if it exists
+	 * @throws IOException if the file can not be written
+	 */
+	public void writeText(File file) throws IOException {
+		try (PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16))) {
+			Calendar date = new GregorianCalendar();
+			out.println("contacts");
+			generate(new RecordSink() {
+				private boolean meetingsStarted = false;
+
+				@Override
+				public void contact(int id, String name, String notes) {
+					out.println(id + CSV_SPLIT_STRING + name + CSV_SPLIT_STRING + notes + CSV_SPLIT_STRING);
+				}
+
+				@Override
+				public void meeting(int id, long timeInMillis, String notes, int[] contactIds) {
+					if (!meetingsStarted) {
+						out.println("meetings");
+						meetingsStarted = true;
+					}
+					date.setTimeInMillis(timeInMillis);
+					StringBuilder line = new StringBuilder();
+					line.append(id).append(CSV_SPLIT_STRING)
+							.append(date.get(Calendar.YEAR)).append(CSV_SPLIT_STRING)
+							.append(date.get(Calendar.MONTH)).append(CSV_SPLIT_STRING)
+							.append(date.get(Calendar.DAY_OF_MONTH)).append(CSV_SPLIT_STRING)
+							.append(date.get(Calendar.HOUR_OF_DAY)).append(CSV_SPLIT_STRING)
+							.append(date.get(Calendar.MINUTE)).append(CSV_SPLIT_STRING)
+							.append(notes).append(CSV_SPLIT_STRING);
+					for (int contactId: contactIds) {
+						line.append(contactId).append(CSV_SPLIT_STRING);
+					}
+					out.println(line);
+				}
+			});
+			if (meetingCount == 0) {
+				out.println("meetings");
+			}
+			if (out.checkError()) {
+				throw new IOException("Could not write " + file);
+			}
+		}
+	}
+
+	/**
+	 * Writes a binary data file.
+	 * @param file the file to write, replaced if it exists
+	 * @throws IOException if the file can not be written
+	 */
+	public void writeBinary(File file) throws IOException {
+		try (BinarySnapshotWriter out = new BinarySnapshotWriter(file, contactCount, meetingCount)) {
+			generate(new RecordSink() {
+				@Override
+				public void contact(int id, String name, String notes) throws IOException {
+					out.writeContact(id, name, notes);
+				}
+
+				@Override
+				public void meeting(int id, long timeInMillis, String notes, int[] contactIds) throws IOException {
+					out.writeMeeting(id, timeInMillis, notes, contactIds);
+				}
+			});
+			out.finish();
+		}
+	}
+
+	/**
+	 * Generates every contact, then every meeting in date order.
+	 * @param sink where the records go
+	 * @throws IOException if the sink can not write a record
+	 */
+	private void generate(RecordSink sink) throws IOException {
+		Random random = new Random(seed);
+		for (int id = 1; id <= contactCount; id++) {
+			String name = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " "
+					+ LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+			sink.contact(id, name, randomNotes(random));
+		}
+		int pastCount = (int) Math.round(meetingCount * pastFraction);
+		long spacing = minutesApart * MINUTE_MILLIS;
+		long time = referenceTime - DAY_MILLIS - pastCount * spacing;
+		Calendar check = new GregorianCalendar();
+		for (int id = 1; id <= meetingCount; id++) {
+			if (id == pastCount + 1) {
+				time = Math.max(time, referenceTime + DAY_MILLIS);
+			}
+			time = nextWholeLocalMinute(time, check);
+			int[] contactIds = randomContactIds(random);
+			sink.meeting(id, time, (id <= pastCount) ? randomNotes(random) : "", contactIds);
+			time += spacing;
+		}
+	}
+
+	/**
+	 * Moves a time past any minute the text data file can not hold, i.e. one whose local date
+	 * and time are shared with another minute when the clocks go back.  Dates are unique in
+	 * ContactManager, so such a meeting would be lost when the file is loaded.
+	 * @param time a whole minute in milliseconds since the epoch
+	 * @param check a calendar to work with
+	 * @return the first minute from that time which can be held
+	 */
+	private static long nextWholeLocalMinute(long time, Calendar check) {
+		while (true) {
+			check.setTimeInMillis(time);
+			int year = check.get(Calendar.YEAR);
+			int month = check.get(Calendar.MONTH);
+			int day = check.get(Calendar.DAY_OF_MONTH);
+			int hour = check.get(Calendar.HOUR_OF_DAY);
+			int minute = check.get(Calendar.MINUTE);
+			check.clear();
+			check.set(year, month, day, hour, minute);
+			if (check.getTimeInMillis() == time) {
+				return time;
+			}
+			time += MINUTE_MILLIS;
+		}
+	}
+
+	private int[] randomContactIds(Random random) {
+		int weight = random.nextInt(attendeeWeights[attendeeWeights.length - 1]);
+		int choice = 0;
+		while (attendeeWeights[choice] <= weight) {
+			choice++;
+		}
+		int[] ids = new int[attendeeSizes[choice]];
+		for (int i = 0; i < ids.length; i++) {
+			int id;
+			do {
+				id = 1 + random.nextInt(contactCount);
+			} while (contains(ids, i, id));
+			ids[i] = id;
+		}
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	private static boolean contains(int[] ids, int count, int id) {
+		for (int i = 0; i < count; i++) {
+			if (ids[i] == id) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private String randomNotes(Random random) {
+		StringBuilder notes = new StringBuilder();
+		while (notes.length() < notesLength) {
+			if (notes.length() > 0) {
+				notes.append(' ');
+			}
+			notes.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return notes.toString();
+	}
+
+	public static void main(String[] args) {
+		int contacts = 1000;
+		int meetings = 10000;
+		long seed = 1;
+		String attendees = null;
+		String format = "text";
+		String dir = "./cw4";
+		Double past = null;
+		Integer notes = null;
+		Integer spacing = null;
+		for (String arg: args) {
+			String[] setting = arg.split("=", 2);
+			if (setting.length != 2) {
+				throw new IllegalArgumentException("Settings are given as name=value: " + arg);
+			}
+			String value = setting[1];
+			switch (setting[0]) {
+				case "contacts": contacts = Integer.parseInt(value); break;
+				case "meetings": meetings = Integer.parseInt(value); break;
+				case "seed": seed = Long.parseLong(value); break;
+				case "attendees": attendees = value; break;
+				case "past": past = Double.parseDouble(value); break;
+				case "notes": notes = Integer.parseInt(value); break;
+				case "spacing": spacing = Integer.parseInt(value); break;
+				case "format": format = value; break;
+				case "dir": dir = value; break;
+				default: throw new IllegalArgumentException("Unknown setting: " + setting[0]);
+			}
+		}
+		if (!format.equals("text") && !format.equals("binary") && !format.equals("both")) {
+			throw new IllegalArgumentException("Format must be text, binary or both");
+		}
+		ContactManagerDataGenerator generator = new ContactManagerDataGenerator(contacts, meetings, seed);
+		if (attendees != null) {
+			String[] entries = attendees.split(",");
+			int[] sizes = new int[entries.length];
+			int[] weights = new int[entries.length];
+			for (int i = 0; i < entries.length; i++) {
+				String[] sizeAndWeight = entries[i].split(":");
+				sizes[i] = Integer.parseInt(sizeAndWeight[0]);
+				weights[i] = (sizeAndWeight.length > 1) ? Integer.parseInt(sizeAndWeight[1]) : 1;
+			}
+			generator.setAttendeeSizes(sizes, weights);
+		}
+		if (past != null) {
+			generator.setPastFraction(past);
+		}
+		if (notes != null) {
+			generator.setNotesLength(notes);
+		}
+		if (spacing != null) {
+			generator.setMinutesApart(spacing);
+		}
+		try {
+			new File(dir).mkdirs();
+			Files.deleteIfExists(new File(dir, "contacts.log").toPath());
+			Files.deleteIfExists(new File(dir, "contacts.idx").toPath());
+			if (format.equals("text") || format.equals("both")) {
+				generator.writeText(new File(dir, "contacts.txt"));
+			}
+			if (format.equals("binary") || format.equals("both")) {
+				generator.writeBinary(new File(dir, "contacts.bin"));
+			}
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,155 @@
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The Java Flight Recorder events emitted by ContactManagerImpl, so that its persistence and
+ * migration work and its slow operations can be seen alongside GC and other JVM events in a
+ * recording (e.g. in JDK Mission Control).  The events are in the "ContactManager" category
+ * and, like other JFR events, cost next to nothing unless a recording has them enabled.
+ *
+ * @author markkingsbury
+ */
+
+public class ContactManagerEvents {
+
+	private static volatile long slowOperationThresholdNanos = TimeUnit.MILLISECONDS.toNanos(10);
+	//isEnabled() reads the event type's current settings rather than the event's fields, so
+	//one event, never committed, answers it for every operation without creating another
+	private static final SlowOperationEvent SLOW_OPERATION_PROBE = new SlowOperationEvent();
+
+	private ContactManagerEvents() {
+	}
+
+	/**
+	 * Emitted for each flush().
+	 */
+	@Name("contactmanager.Flush")
+	@Label("Flush")
+	@Category("ContactManager")
+	@Description("Contacts and meetings saved by flush()")
+	public static class FlushEvent extends Event {
+		@Label("Persistence Mode")
+		public String persistenceMode;
+
+		@Label("Records Written")
+		@Description("Contacts and meetings written to the data file or journal")
+		public int recordsWritten;
+
+		@Label("Bytes Written")
+		@Description("Bytes written to the data file, journal and notes index")
+		@DataAmount
+		public long bytesWritten;
+	}
+
+	/**
+	 * Emitted when a ContactManager loads its data.
+	 */
+	@Name("contactmanager.Load")
+	@Label("Load")
+	@Category("ContactManager")
+	@Description("Contacts and meetings loaded when a ContactManager is created")
+	public static class LoadEvent extends Event {
+		@Label("Persistence Mode")
+		public String persistenceMode;
+
+		@Label("Data File")
+		public String dataFile;
+
+		@Label("Records Loaded")
+		@Description("Contacts and meetings read from the data file")
+		public int recordsLoaded;
+
+		@Label("Journal Records Replayed")
+		public int journalRecordsReplayed;
+
+		@Label("Bytes Read")
+		@Description("Bytes of the data file, journal and notes index read")
+		@DataAmount
+		public long bytesRead;
+
+		@Label("Parse Time")
+		@Description("Time spent reading and decoding records and reading or building the notes indexes")
+		@Timespan
+		public long parseTime;
+
+		@Label("Build Time")
+		@Description("Time spent adding the records' contacts and meetings to the ContactManager's indexes")
+		@Timespan
+		public long buildTime;
+	}
+
+	/**
+	 * Emitted when FutureMeetings are made into PastMeetings as their dates pass.
+	 */
+	@Name("contactmanager.Migration")
+	@Label("Migration")
+	@Category("ContactManager")
+	@Description("FutureMeetings made into PastMeetings as their dates passed")
+	public static class MigrationEvent extends Event {
+		@Label("Meetings Migrated")
+		public int meetingsMigrated;
+	}
+
+	/**
+	 * Emitted for an operation that takes longer than the slow operation threshold.
+	 */
+	@Name("contactmanager.SlowOperation")
+	@Label("Slow Operation")
+	@Category("ContactManager")
+	@Description("A ContactManager operation that took longer than the slow operation threshold")
+	public static class SlowOperationEvent extends Event {
+		@Label("Operation")
+		public String operation;
+
+		@Label("Elements Scanned")
+		public long elementsScanned;
+
+		@Label("Operation Time")
+		@Timespan
+		public long operationTime;
+	}
+
+	/**
+	 * Sets how long an operation must take to emit a SlowOperationEvent; 10 milliseconds
+	 * unless set.
+	 * @param threshold the threshold
+	 * @param unit the unit of the threshold
+	 */
+	public static void setSlowOperationThreshold(long threshold, TimeUnit unit) {
+		slowOperationThresholdNanos = unit.toNanos(threshold);
+	}
+
+	/**
+	 * @return true if a recording is taking SlowOperationEvents, so operations need timing
+	 */
+	static boolean isSlowOperationEnabled() {
+		return SLOW_OPERATION_PROBE.isEnabled();
+	}
+
+	/**
+	 * Emits a SlowOperationEvent if the operation took longer than the threshold.  The
+	 * operation's time is given as a field, as it ended before the event was created.
+	 * @param operation the operation
+	 * @param nanos how long it took
+	 * @param elementsScanned the number of elements it scanned
+	 */
+	static void slowOperation(ContactManagerMetrics.Operation operation, long nanos, long elementsScanned) {
+		if (nanos < slowOperationThresholdNanos) {
+			return;
+		}
+		SlowOperationEvent event = new SlowOperationEvent();
+		if (event.shouldCommit()) {
+			event.operation = operation.name();
+			event.elementsScanned = elementsScanned;
+			event.operationTime = nanos;
+			event.commit();
+		}
+	}
+}
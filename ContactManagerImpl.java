@@ -1,20 +1,50 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.Reader;
-import java.time.LocalDateTime;
-import java.time.ZonedDateTime;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.GregorianCalendar;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.SortedMap;
 import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * An implementation of ContactManager.  Generates IDs for Contacts and Meetings.
@@ -24,25 +54,61 @@ import java.util.TreeSet;
 public class ContactManagerImpl implements ContactManager {
 
 	private static final String DATA_FILE_NAME = "./cw4/contacts.txt";
+	private static final String JOURNAL_FILE_NAME = "./cw4/contacts.log";
+	private static final String BINARY_DATA_FILE_NAME = "./cw4/contacts.bin";
+	private static final String NOTES_INDEX_FILE_NAME = "./cw4/contacts.idx";
+	private static final String NOTES_INDEX_HEADER = "CMNI1";
 	private static final String CSV_SPLIT_STRING = "\",\"";
+	private static final String CONTACT_RECORD = "contact";
+	private static final String MEETING_RECORD = "meeting";
+	private static final int INITIAL_CONTACT_CAPACITY = 64;
+	private static final int MIN_RECORDS_BEFORE_COMPACTION = 1000;
 	
-	private Set<Contact> contacts;
-	private SortedSet<Meeting> meetings;
+	private Contact[] contacts;
+	private MeetingTimeline[] timelines;
+	private IntIntMap[] coAttendance;
+	private TrigramIndex nameIndex;
+	private NavigableSet<Contact> contactsByName;
+	private NotesIndex contactNotesIndex;
+	private NotesIndex meetingNotesIndex;
+	private boolean notesIndexed;
+	private SortedSet<MeetingImpl> meetings;
+	private IntObjectMap<MeetingImpl> meetingsById;
+	private Queue<MeetingImpl> pendingMigrations;
+	private MeetingImpl.ContactLookup contactLookup;
+	private IntArrayInterner attendeeSets;
+	private NavigableMap<YearMonth, Integer> meetingsPerMonth;
+	private volatile ContactManagerMetrics metrics;
+	private long loadNanos;
+	private long loadBytesRead;
+	private int loadRecordCount;
+	private int loadJournalRecords;
+	private boolean timingLoad;
+	private long loadBuildNanos;
+	private int flushRecords;
+	private long flushBytes;
+	//the default time zone when CM was created, for the queries by day and by month
+	private ZoneId zone;
 	private int countContacts;
 	private int countMeetings;
-	private long daysToAddToClockForTesting;
+	private long clockAdjustmentInMillis;
+	private PersistenceMode persistenceMode;
+	private ContactManagerJournal journal;
+	private boolean journalNeedsCompaction;
+	//in MAPPED_SNAPSHOT mode, until an operation needs every contact and meeting (see
+	//decodeMappedSnapshot), the mapped data file and where each contact and meeting starts in it
+	private BinarySnapshotReader mappedReader;
+	private MappedByteBuffer mappedDataFile;
+	private int[] mappedContactPositions;
+	private int[] mappedMeetingPositions;
+	private int mappedMeetingCount;
 	
 	/**
 	 * Normal, in use, constructor. Time will be as 'real world'.
 	 */	
 	
 	public ContactManagerImpl() {
-		this.contacts = new HashSet<Contact>();
-		this.meetings = new TreeSet<Meeting>();
-		this.countContacts = 0;
-		this.countMeetings = 0;
-		this.daysToAddToClockForTesting = 0;
-		loadRecords();
+		this(0, PersistenceMode.TEXT_SNAPSHOT);
 	}
 
 	/**
@@ -52,11 +118,52 @@ public class ContactManagerImpl implements ContactManager {
 	 * @param daysToAddToClockForTesting the number of days to be added to the ContactManager clock
 	 */
 	public ContactManagerImpl(long daysToAddToClockForTesting) {
-		this.contacts = new HashSet<Contact>();
-		this.meetings = new TreeSet<Meeting>();
+		this(daysToAddToClockForTesting, PersistenceMode.TEXT_SNAPSHOT);
+	}
+	
+	/**
+	 * Constructor choosing how data is saved to disk. Time will be as 'real world'.
+	 * 
+	 * @param persistenceMode how flush() saves the data
+	 */
+	public ContactManagerImpl(PersistenceMode persistenceMode) {
+		this(0, persistenceMode);
+	}
+	
+	/**
+	 * Constructor choosing how data is saved to disk, with the clock adjusted for testing
+	 * (see ContactManagerImpl(long)).
+	 * 
+	 * @param daysToAddToClockForTesting the number of days to be added to the ContactManager clock
+	 * @param persistenceMode how flush() saves the data
+	 */
+	public ContactManagerImpl(long daysToAddToClockForTesting, PersistenceMode persistenceMode) {
+		if (persistenceMode == null) {
+			throw new NullPointerException("Persistence mode may not be null");
+		}
+		this.contacts = new Contact[INITIAL_CONTACT_CAPACITY];
+		this.timelines = new MeetingTimeline[INITIAL_CONTACT_CAPACITY];
+		this.coAttendance = new IntIntMap[INITIAL_CONTACT_CAPACITY];
+		this.nameIndex = new TrigramIndex();
+		this.contactsByName = new TreeSet<Contact>(
+				Comparator.comparing(Contact::getName).thenComparingInt(Contact::getId));
+		this.contactNotesIndex = new NotesIndex();
+		this.meetingNotesIndex = new NotesIndex();
+		this.notesIndexed = false;
+		this.meetings = new TreeSet<MeetingImpl>();
+		this.meetingsById = new IntObjectMap<MeetingImpl>();
+		this.pendingMigrations = new PriorityQueue<MeetingImpl>();
+		this.contactLookup = this::lookupContact;
+		this.attendeeSets = new IntArrayInterner();
+		this.meetingsPerMonth = new TreeMap<YearMonth, Integer>();
+		this.zone = ZoneId.systemDefault();
 		this.countContacts = 0;
 		this.countMeetings = 0;
-		this.daysToAddToClockForTesting = daysToAddToClockForTesting;
+		this.clockAdjustmentInMillis = TimeUnit.DAYS.toMillis(daysToAddToClockForTesting);
+		this.persistenceMode = persistenceMode;
+		if (persistenceMode == PersistenceMode.JOURNAL) {
+			this.journal = new ContactManagerJournal(new File(JOURNAL_FILE_NAME));
+		}
 		loadRecords();
 	}
 	
@@ -66,62 +173,64 @@ public class ContactManagerImpl implements ContactManager {
 		if(contacts == null || date == null) {
 			throw new NullPointerException("AddFutureMeeting arguments may not be null");
 		}
-		if(dateIsInPast(date)) {
-			throw new IllegalArgumentException("Date is in the past");
-		}
-		checkContacts(contacts);
-		countMeetings++;
-		int meetingId = countMeetings;
-		Meeting meetingToAdd = new FutureMeetingImpl(meetingId, contacts, date);
-		//contains uses compareTo() which is overridden so based on date
-		if (meetings.contains(meetingToAdd)) {
-			countMeetings--;
-			throw new IllegalArgumentException("Meeting already exists at that date/time");
+		return addFutureMeetingAt(contacts, date.getTimeInMillis());
+	}
+
+	@Override
+	public int addFutureMeeting(Set<Contact> contacts, Instant date) {
+		if(contacts == null || date == null) {
+			throw new NullPointerException("AddFutureMeeting arguments may not be null");
 		}
-		meetings.add(meetingToAdd);
-		return meetingId;
+		return addFutureMeetingAt(contacts, date.toEpochMilli());
 	}
 
 	@Override
 	public PastMeeting getPastMeeting(int id) {
-		//any FutureMeetings with a date in past are migrated to PastMeetings
-		migrateFutureMeetings();
-		for(Meeting mtg: meetings) {
-			if (mtg.getId() == id) {
-				if (mtg instanceof FutureMeeting){
-					//if this is a FutureMeeting the date must be in the future
-					throw new IllegalArgumentException("Meeting with that ID is in the future");
-				}				
-				return (PastMeeting) mtg;
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		try {
+			//any FutureMeetings with a date in past are migrated to PastMeetings
+			migrateFutureMeetings();
+			MeetingImpl mtg = meetingsById.get(id);
+			if (mtg instanceof FutureMeeting){
+				//if this is a FutureMeeting the date must be in the future
+				throw new IllegalArgumentException("Meeting with that ID is in the future");
 			}
+			return (PastMeeting) mtg;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.GET_MEETING, timed, start, 0);
 		}
-		return null;
 	}
 
 	@Override
 	public FutureMeeting getFutureMeeting(int id) {
-		//any FutureMeetings with a date in past are migrated to PastMeetings
-		migrateFutureMeetings();
-		for(Meeting mtg: meetings) {
-			if (mtg.getId() == id) {
-				if (mtg instanceof PastMeeting){
-					//if this is a PastMeeting the date must be in the past
-					throw new IllegalArgumentException("Meeting with that ID is in the past");
-				}
-				return (FutureMeeting) mtg;
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		try {
+			//any FutureMeetings with a date in past are migrated to PastMeetings
+			migrateFutureMeetings();
+			MeetingImpl mtg = meetingsById.get(id);
+			if (mtg instanceof PastMeeting){
+				//if this is a PastMeeting the date must be in the past
+				throw new IllegalArgumentException("Meeting with that ID is in the past");
 			}
+			return (FutureMeeting) mtg;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.GET_MEETING, timed, start, 0);
 		}
-		return null;
 	}
 
 	@Override
 	public Meeting getMeeting(int id) {
-		for(Meeting mtg: meetings) {
-			if (mtg.getId() == id) {
-				return mtg;
-			}
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		try {
+			return lookupMeeting(id);
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.GET_MEETING, timed, start, 0);
 		}
-		return null;
 	}
 
 	/**
@@ -130,20 +239,25 @@ public class ContactManagerImpl implements ContactManager {
 	*/	
 	@Override
 	public List<Meeting> getFutureMeetingList(Contact contact) {
-		if(!this.contacts.contains(contact)) {
-			throw new IllegalArgumentException("Contact unknown");
-		}
-		//any FutureMeetings with a date in past are migrated to PastMeetings
-		migrateFutureMeetings();
-		List<Meeting> result = new LinkedList<Meeting>();
-		for (Meeting mtg: meetings) {
-			//as meetings is a SortedSet with compareTo overridden for date order the meetings
-			//are added to result in chronological order.
-			if(mtg.getContacts().contains(contact) && !dateIsInPast(mtg.getDate())) {
-				result.add(mtg);
-			}	
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			MeetingTimeline timeline = timelineOf(contact);
+			//any FutureMeetings with a date in past are migrated to PastMeetings
+			long now = migrateFutureMeetings();
+			List<Meeting> result = new LinkedList<Meeting>();
+			//the contact's timeline is in chronological order, so the future meetings are
+			//those from the first one at or after now to the end.
+			for (int i = timeline.firstIndexAtOrAfter(now); i < timeline.size(); i++) {
+				result.add(meetingsById.get(timeline.getMeetingId(i)));
+			}
+			scanned = searchSteps(timeline) + result.size();
+			return result;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.FUTURE_MEETING_LIST, timed, start, scanned);
 		}
-		return result;
 	}
 
 	/**
@@ -153,272 +267,1644 @@ public class ContactManagerImpl implements ContactManager {
 	
 	@Override
 	public List<Meeting> getFutureMeetingList(Calendar date) {
-		//any FutureMeetings with a date in past are migrated to PastMeetings
-		migrateFutureMeetings();
-		List<Meeting> result = new LinkedList<Meeting>();
-		for (Meeting mtg: meetings) {
-			//as meetings is a SortedSet with compareTo overridden for date order the meetings
-			//are added to result in chronological order.
-			if(mtg.getDate().get(Calendar.YEAR) == date.get(Calendar.YEAR)
-					&& mtg.getDate().get(Calendar.MONTH) == date.get(Calendar.MONTH)
-					&& mtg.getDate().get(Calendar.DAY_OF_MONTH) == date.get(Calendar.DAY_OF_MONTH)) {
-				result.add(mtg);
-			}	
+		Calendar startOfDay = (Calendar) date.clone();
+		startOfDay.set(Calendar.HOUR_OF_DAY, 0);
+		startOfDay.set(Calendar.MINUTE, 0);
+		startOfDay.set(Calendar.SECOND, 0);
+		startOfDay.set(Calendar.MILLISECOND, 0);
+		Calendar startOfNextDay = (Calendar) startOfDay.clone();
+		startOfNextDay.add(Calendar.DAY_OF_MONTH, 1);
+		return getMeetingListBetween(startOfDay.getTimeInMillis(), startOfNextDay.getTimeInMillis());
+	}
+
+	/**
+	* The day runs from midnight to midnight in CM's time zone, as countMeetingsByMonth() uses.
+	*/
+	@Override
+	public List<Meeting> getFutureMeetingList(LocalDate date) {
+		return getMeetingListBetween(date.atStartOfDay(zone).toInstant().toEpochMilli(),
+				date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli());
+	}
+
+	@Override
+	public List<Meeting> getMeetingList(Calendar from, Calendar to) {
+		if (from == null || to == null) {
+			throw new NullPointerException("Dates may not be null");
 		}
-		return result;
+		return getMeetingListBetween(from.getTimeInMillis(), to.getTimeInMillis());
+	}
+
+	@Override
+	public List<Meeting> getMeetingList(Instant from, Instant to) {
+		if (from == null || to == null) {
+			throw new NullPointerException("Dates may not be null");
+		}
+		return getMeetingListBetween(from.toEpochMilli(), to.toEpochMilli());
 	}
 
 	
 	@Override
 	public List<PastMeeting> getPastMeetingList(Contact contact) {
-		if(!this.contacts.contains(contact)) {
-			throw new IllegalArgumentException("Contact unknown");
-		}
-		//any FutureMeetings with a date in past are migrated to PastMeetings
-		migrateFutureMeetings();
-		List<PastMeeting> result = new LinkedList<PastMeeting>();
-		for (Meeting mtg: meetings) {
-			//as meetings is a SortedSet with compareTo overridden for date order the meetings
-			//are added to result in chronological order.
-			if(mtg.getContacts().contains(contact) && dateIsInPast(mtg.getDate())) {
-				result.add((PastMeeting) mtg);
-			}	
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			MeetingTimeline timeline = timelineOf(contact);
+			//any FutureMeetings with a date in past are migrated to PastMeetings
+			long now = migrateFutureMeetings();
+			List<PastMeeting> result = new LinkedList<PastMeeting>();
+			//the contact's timeline is in chronological order, so the past meetings are
+			//those from the start up to the first one at or after now.
+			int end = timeline.firstIndexAtOrAfter(now);
+			for (int i = 0; i < end; i++) {
+				result.add((PastMeeting) meetingsById.get(timeline.getMeetingId(i)));
+			}
+			scanned = searchSteps(timeline) + result.size();
+			return result;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.PAST_MEETING_LIST, timed, start, scanned);
 		}
-		return result;
 	}
 
 	@Override
-	public void addNewPastMeeting(Set<Contact> contacts, Calendar date, String text) {
-		if (contacts == null || date == null || text == null) {
-			throw new NullPointerException("NewPastMeeting arguments may not be null");
-		}
-		if(!dateIsInPast(date)) {
-			throw new IllegalArgumentException("Date may not be in future");
+	public void forEachFutureMeeting(Contact contact, Consumer<? super Meeting> action) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			MeetingTimeline timeline = timelineOf(contact);
+			if (action == null) {
+				throw new NullPointerException("Action may not be null");
+			}
+			long now = migrateFutureMeetings();
+			int first = timeline.firstIndexAtOrAfter(now);
+			for (int i = first; i < timeline.size(); i++) {
+				action.accept(meetingsById.get(timeline.getMeetingId(i)));
+			}
+			scanned = searchSteps(timeline) + timeline.size() - first;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.FOR_EACH_MEETING, timed, start, scanned);
 		}
-		checkContacts(contacts);
-		countMeetings++;
-		int meetingId = countMeetings;
-		Meeting meetingToAdd = new PastMeetingImpl(meetingId, contacts, date, text);
-		if (meetings.contains(meetingToAdd)) {
-			countMeetings--;
-			throw new IllegalArgumentException("Meeting already exists at that date/time");
+	}
+
+	@Override
+	public void forEachPastMeeting(Contact contact, Consumer<? super PastMeeting> action) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			MeetingTimeline timeline = timelineOf(contact);
+			if (action == null) {
+				throw new NullPointerException("Action may not be null");
+			}
+			long now = migrateFutureMeetings();
+			int end = timeline.firstIndexAtOrAfter(now);
+			for (int i = 0; i < end; i++) {
+				action.accept((PastMeeting) meetingsById.get(timeline.getMeetingId(i)));
+			}
+			scanned = searchSteps(timeline) + end;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.FOR_EACH_MEETING, timed, start, scanned);
 		}
-		meetings.add(meetingToAdd);
 	}
 
 	@Override
-	public void addMeetingNotes(int id, String text) {
-		if(text == null) {
-			throw new NullPointerException("Notes may not be null");
+	public Stream<Meeting> futureMeetings(Contact contact) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		try {
+			MeetingTimeline timeline = timelineOf(contact);
+			long now = migrateFutureMeetings();
+			return StreamSupport.stream(new TimelineSpliterator<Meeting>(timeline,
+					timeline.firstIndexAtOrAfter(now), timeline.size()), false);
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.MEETING_STREAM, timed, start, 0);
 		}
-		Meeting mtg = getMeeting(id);
-		if (mtg == null) {
-			throw new IllegalArgumentException("Meeting does not exist");
+	}
+
+	@Override
+	public Stream<PastMeeting> pastMeetings(Contact contact) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		try {
+			MeetingTimeline timeline = timelineOf(contact);
+			long now = migrateFutureMeetings();
+			return StreamSupport.stream(new TimelineSpliterator<PastMeeting>(timeline,
+					0, timeline.firstIndexAtOrAfter(now)), false);
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.MEETING_STREAM, timed, start, 0);
 		}
-		if(!dateIsInPast(mtg.getDate())) {
-			throw new IllegalStateException("Meeting is in the future");
+	}
+
+	@Override
+	public MeetingPage<Meeting> getFutureMeetingPage(Contact contact, String cursor, int pageSize) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long startTime = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			MeetingTimeline timeline = timelineOf(contact);
+			long now = migrateFutureMeetings();
+			int start = Math.max(timeline.firstIndexAtOrAfter(now), pageStart(timeline, cursor, pageSize));
+			MeetingPage<Meeting> page = meetingPage(timeline, start, timeline.size(), pageSize);
+			scanned = 2 * searchSteps(timeline) + page.getMeetings().size();
+			return page;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.MEETING_PAGE, timed, startTime, scanned);
 		}
-		//remove the meeting from CM
-		meetings.remove(mtg);
-		//if the meeting is already a PastMeeting, add the text to any existing notes
-		if (mtg instanceof PastMeeting){
-			text = ((PastMeeting) mtg).getNotes() + text;
+	}
+
+	@Override
+	public MeetingPage<PastMeeting> getPastMeetingPage(Contact contact, String cursor, int pageSize) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			MeetingTimeline timeline = timelineOf(contact);
+			long now = migrateFutureMeetings();
+			MeetingPage<PastMeeting> page = meetingPage(timeline, pageStart(timeline, cursor, pageSize),
+					timeline.firstIndexAtOrAfter(now), pageSize);
+			scanned = 2 * searchSteps(timeline) + page.getMeetings().size();
+			return page;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.MEETING_PAGE, timed, start, scanned);
 		}
-		//the add it back as a PastMeeting
-		meetings.add(new PastMeetingImpl(id, mtg.getContacts(), mtg.getDate(), text));
 	}
 
+	/**
+	 * Answered by intersecting the contacts' timelines; see MeetingTimeline.intersection().
+	 */
 	@Override
-	public void addNewContact(String name, String notes) {
-		if(name == null || notes == null) {
-			throw new NullPointerException("Name/Notes may not be null");
+	public List<Meeting> getMeetingsWithAll(Set<Contact> contacts) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			MeetingTimeline[] selected = timelinesOf(contacts);
+			migrateFutureMeetings();
+			List<Meeting> result = meetingsIn(MeetingTimeline.intersection(selected));
+			scanned = entriesIn(selected);
+			return result;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.MEETINGS_WITH_CONTACTS, timed, start, scanned);
 		}
-		//as some methods search contacts by name do not allow empty string however
-		//notes may be empty string as not searched for (and we have feature to add later)
-		if(name == "") {
-			throw new IllegalArgumentException("Name may not be empty string"); 
+	}
+
+	/**
+	 * Answered by merging the contacts' timelines; see MeetingTimeline.union().
+	 */
+	@Override
+	public List<Meeting> getMeetingsWithAny(Set<Contact> contacts) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			MeetingTimeline[] selected = timelinesOf(contacts);
+			migrateFutureMeetings();
+			List<Meeting> result = meetingsIn(MeetingTimeline.union(selected));
+			scanned = entriesIn(selected);
+			return result;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.MEETINGS_WITH_CONTACTS, timed, start, scanned);
 		}
-		countContacts++;
-		int contactId = countContacts;
-		contacts.add(new ContactImpl(contactId, name, notes));
 	}
 
+	/**
+	 * Answered from the counts of meetings between each pair of contacts, which are kept as
+	 * meetings are added, so only the contacts this one has met are looked at.
+	 */
 	@Override
-	public Set<Contact> getContacts(int... ids) {
-		Set<Contact> result = new HashSet<Contact>();
-		boolean idFound;
-		for(int id: ids) {
-			idFound = false;
-			for (Contact contact: contacts) {
-				if(contact.getId() == id) {
-					idFound = true;
-					result.add(contact);
-					break;
-				}
+	public List<Contact> getTopCollaborators(Contact contact, int n) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			timelineOf(contact);
+			if (n < 0) {
+				throw new IllegalArgumentException("Number of contacts may not be negative");
 			}
-			if(!idFound) {
-				throw new IllegalArgumentException("ID does not correspond to a real contact");
+			IntIntMap counts = coAttendance[contact.getId()];
+			if (counts == null || n == 0) {
+				return new ArrayList<Contact>();
+			}
+			//each entry is packed as the count followed by the complement of the ID, so that
+			//sorting puts the most frequent last and, among equals, the lowest ID after the others
+			long[] ranked = new long[counts.size()];
+			int[] filled = new int[1];
+			counts.forEach((otherId, count) -> ranked[filled[0]++] = ((long) count << 32) | (~otherId & 0xFFFFFFFFL));
+			Arrays.sort(ranked);
+			List<Contact> result = new ArrayList<Contact>(Math.min(n, ranked.length));
+			for (int i = ranked.length - 1; i >= 0 && result.size() < n; i--) {
+				result.add(contacts[~(int) ranked[i]]);
 			}
+			scanned = ranked.length;
+			return result;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.TOP_COLLABORATORS, timed, start, scanned);
 		}
-		return result;
 	}
 
+	/**
+	 * Answered by binary search of the contact's timeline.
+	 */
 	@Override
-	public Set<Contact> getContacts(String name) {
-		if (name == null) {
-			throw new NullPointerException("Parameter may not be null");
+	public int countMeetings(Contact contact, Instant from, Instant to) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			MeetingTimeline timeline = timelineOf(contact);
+			if (from == null || to == null) {
+				throw new NullPointerException("Dates may not be null");
+			}
+			if (to.isBefore(from)) {
+				throw new IllegalArgumentException("End date is before start date");
+			}
+			int count = timeline.firstIndexAtOrAfter(to.toEpochMilli()) - timeline.firstIndexAtOrAfter(from.toEpochMilli());
+			scanned = 2 * searchSteps(timeline);
+			return count;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.COUNT_MEETINGS, timed, start, scanned);
 		}
-		if (name == "") {
-			throw new IllegalArgumentException("Parameter may not be empty string");
+	}
+
+	@Override
+	public Meeting nextMeeting(Contact contact) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			MeetingTimeline timeline = timelineOf(contact);
+			long now = migrateFutureMeetings();
+			int next = timeline.firstIndexAtOrAfter(now);
+			Meeting result = (next < timeline.size()) ? meetingsById.get(timeline.getMeetingId(next)) : null;
+			scanned = searchSteps(timeline);
+			return result;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.COUNT_MEETINGS, timed, start, scanned);
 		}
-		Set<Contact> result = new HashSet<Contact>();
-		for(Contact contact: contacts) {
-			if(contact.getName().contains(name)) {
-				result.add(contact);
-			}
+	}
+
+	@Override
+	public PastMeeting lastMeeting(Contact contact) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			MeetingTimeline timeline = timelineOf(contact);
+			long now = migrateFutureMeetings();
+			int last = timeline.firstIndexAtOrAfter(now) - 1;
+			PastMeeting result = (last >= 0) ? (PastMeeting) meetingsById.get(timeline.getMeetingId(last)) : null;
+			scanned = searchSteps(timeline);
+			return result;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.COUNT_MEETINGS, timed, start, scanned);
 		}
-		return result;
 	}
 
+	/**
+	 * Answered from counts kept for each month as meetings are added, so only the months
+	 * asked for are visited.
+	 */
 	@Override
-	public void flush() {
-		PrintWriter out = null;
-		File file = new File(DATA_FILE_NAME);
+	public SortedMap<YearMonth, Integer> countMeetingsByMonth(YearMonth from, YearMonth to) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
 		try {
-			out = new PrintWriter(file);
-			out.println("contacts");
-			for(Contact contact: contacts) {
-				out.println(contact.toString());			
+			if (from == null || to == null) {
+				throw new NullPointerException("Months may not be null");
 			}
-			out.println("meetings");
-			for(Meeting meeting: meetings) {
-				out.println(meeting.toString());
+			if (to.isBefore(from)) {
+				throw new IllegalArgumentException("End month is before start month");
 			}
-		} catch (FileNotFoundException ex) {
-			ex.printStackTrace();
+			SortedMap<YearMonth, Integer> result = new TreeMap<YearMonth, Integer>();
+			for (YearMonth month = from; !month.isAfter(to); month = month.plusMonths(1)) {
+				result.put(month, 0);
+			}
+			result.putAll(meetingsPerMonth.subMap(from, true, to, true));
+			scanned = result.size();
+			return result;
 		} finally {
-			out.close();
+			endTiming(ContactManagerMetrics.Operation.MEETINGS_BY_MONTH, timed, start, scanned);
 		}
 	}
-	
-	private void loadRecords() {
-		File file = new File(DATA_FILE_NAME);
-        if(!file.exists()) {
-        	return;	
-        }	
-		BufferedReader in = null;
+
+	@Override
+	public Stream<Meeting> meetings(Instant from, Instant to) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
 		try {
-			in = new BufferedReader(new FileReader(file));
-			String line;
-			if(!(line = in.readLine()).equals("contacts")) {
-				throw new IllegalStateException("Data File has error");
-			};
-			//load the contacts
-			String[] contactToLoad;
-			while((line = in.readLine()) != null && !line.equals("meetings")) {
-				contactToLoad = line.split(CSV_SPLIT_STRING, -1);
-				createContactFromString(contactToLoad);
+			if (from == null || to == null) {
+				throw new NullPointerException("Dates may not be null");
 			}
-			//load the meetings
-			String[] meetingToLoad;
-			while((line = in.readLine()) != null) {
-				meetingToLoad = line.split(CSV_SPLIT_STRING, -1);
-				createMeetingFromString(meetingToLoad);
+			if (to.isBefore(from)) {
+				throw new IllegalArgumentException("End date is before start date");
 			}
-		} catch (FileNotFoundException ex) {
-			ex.printStackTrace();
-		} catch (IOException ex) {
-			ex.printStackTrace();
+			migrateFutureMeetings();
+			//the sorted set's own iterator walks the period lazily, and fails fast if CM changes
+			return meetings.subSet(dateKey(from.toEpochMilli()), dateKey(to.toEpochMilli()))
+					.stream().map(Meeting.class::cast);
 		} finally {
-			closeReader(in);
+			endTiming(ContactManagerMetrics.Operation.MEETING_STREAM, timed, start, 0);
 		}
 	}
-	
-	/**
-	 *Creates a contact in ContactManager based on the array 
-	 * @param contactToLoad
-	 */
-	
-	private void createContactFromString(String[] contactToLoad) {
-		int contactId = Integer.parseInt(contactToLoad[0]);
-		countContacts++;
-		contacts.add(new ContactImpl(contactId, contactToLoad[1], contactToLoad[2]));		
+
+	@Override
+	public void addNewPastMeeting(Set<Contact> contacts, Calendar date, String text) {
+		if (contacts == null || date == null || text == null) {
+			throw new NullPointerException("NewPastMeeting arguments may not be null");
+		}
+		addNewPastMeetingAt(contacts, date.getTimeInMillis(), text);
 	}
-	
-	/**
-	*Creates a meeting in ContactManager based on the array 
-	*@param meetingToLoad 
-	**/
-	private void createMeetingFromString(String[] meetingToLoad) {
-		int meetingId = Integer.parseInt(meetingToLoad[0]);
-		Calendar meetingDate = new GregorianCalendar(
-				Integer.parseInt(meetingToLoad[1]),
-				Integer.parseInt(meetingToLoad[2]),
-				Integer.parseInt(meetingToLoad[3]),
-				Integer.parseInt(meetingToLoad[4]),
-				Integer.parseInt(meetingToLoad[5]));
-		String meetingNotes = meetingToLoad[6];
-		int numberOfContactsAtMtg = meetingToLoad.length - 8;
-		int[] meetingContactIds = new int[numberOfContactsAtMtg];
-		for(int i = 0; i < numberOfContactsAtMtg; i++) {
-			meetingContactIds[i] = Integer.parseInt(meetingToLoad[i+7]); 
+
+	@Override
+	public void addNewPastMeeting(Set<Contact> contacts, Instant date, String text) {
+		if (contacts == null || date == null || text == null) {
+			throw new NullPointerException("NewPastMeeting arguments may not be null");
 		}
-		Set<Contact> meetingContacts = getContacts(meetingContactIds);
-		countMeetings++;
-		if (dateIsInPast(meetingDate)) {
-			meetings.add(new PastMeetingImpl(meetingId, meetingContacts, meetingDate, meetingNotes));
-		} else {
-			meetings.add(new FutureMeetingImpl(meetingId, meetingContacts, meetingDate));
-		}		
+		addNewPastMeetingAt(contacts, date.toEpochMilli(), text);
 	}
-	
-	/**
-	 * Closes the reader
-	 * @param reader
-	 */
-	
-	private void closeReader(Reader reader) {
+
+	@Override
+	public void addMeetingNotes(int id, String text) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
 		try {
-			if(reader != null) {
-				reader.close();
+			if(text == null) {
+				throw new NullPointerException("Notes may not be null");
 			}
-		} catch (IOException ex) {
-			ex.printStackTrace();
+			MeetingImpl mtg = meetingsById.get(id);
+			if (mtg == null) {
+				throw new IllegalArgumentException("Meeting does not exist");
+			}
+			if(!isInPast(mtg.getTimeInMillis())) {
+				throw new IllegalStateException("Meeting is in the future");
+			}
+			//if the meeting is already a PastMeeting, add the text to any existing notes
+			if (mtg instanceof PastMeeting){
+				text = ((PastMeeting) mtg).getNotes() + text;
+			}
+			//replace the meeting in CM with a PastMeeting
+			MeetingImpl pastMeeting = new PastMeetingImpl(id, mtg.getContactIds(), mtg.getTimeInMillis(),
+					contactLookup, text);
+			replaceMeetingInIndexes(mtg, pastMeeting);
+			journalRecord(MEETING_RECORD, pastMeeting);
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.ADD_MEETING_NOTES, timed, start, 0);
 		}
 	}
-	
-	/**
-	 * Returns DateTime of Contact Manager's clock (date & time).
-	 * Adjusted 'now' by number of days specified for this instance 
-	 * of Contact Manager.  In normal use there will be zero adjustment.
-	 * Adjustment is only used for testing functionality under future dates.
-	 *
-	 *@return LocalDateTime now (according to current instance of ContactManager)
-	 */
-	private LocalDateTime getNow() {
-		return LocalDateTime.now().plusDays(daysToAddToClockForTesting);
-	}	
-	
-	/**
-	 * Transforms the format of date
-	 * @param date in Calendar format
-	 * @return the same date in LocalDateTime format
-	 */
-	
-	private LocalDateTime convertDateFormat(Calendar date) {
-		GregorianCalendar gcDate = (GregorianCalendar) date;
-		ZonedDateTime zdtDate = gcDate.toZonedDateTime();
-		return zdtDate.toLocalDateTime();
+
+	@Override
+	public void addNewContact(String name, String notes) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		try {
+			checkNewContact(name, notes);
+			countContacts++;
+			int contactId = countContacts;
+			Contact contactToAdd = new ContactImpl(contactId, name, notes);
+			addContactToIndexes(contactToAdd);
+			journalRecord(CONTACT_RECORD, contactToAdd);
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.ADD_CONTACT, timed, start, 0);
+		}
 	}
-	
+
+	@Override
+	public IdRange addNewContacts(Collection<NewContact> newContacts) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			if(newContacts == null) {
+				throw new NullPointerException("Contacts may not be null");
+			}
+			//check every contact before adding any, so that a bad one leaves CM unchanged
+			NewContact[] input = newContacts.toArray(new NewContact[0]);
+			for(NewContact newContact: input) {
+				if(newContact == null) {
+					throw new NullPointerException("Contacts may not be null");
+				}
+				checkNewContact(newContact.getName(), newContact.getNotes());
+			}
+			int firstId = countContacts + 1;
+			Contact[] added = new Contact[input.length];
+			for(int i = 0; i < input.length; i++) {
+				added[i] = new ContactImpl(firstId + i, input[i].getName(), input[i].getNotes());
+			}
+			ensureContactCapacity(firstId + added.length);
+			for(Contact contact: added) {
+				addContactToIndexes(contact);
+			}
+			countContacts += added.length;
+			for(Contact contact: added) {
+				journalRecord(CONTACT_RECORD, contact);
+			}
+			scanned = added.length;
+			return new IdRange(firstId, added.length);
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.IMPORT_CONTACTS, timed, start, scanned);
+		}
+	}
+
+	@Override
+	public IdRange addMeetings(Collection<NewMeeting> newMeetings) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			if(newMeetings == null) {
+				throw new NullPointerException("Meetings may not be null");
+			}
+			//check every meeting, including whether any dates clash, before adding any or sharing
+			//their contact IDs, so that a bad one leaves CM unchanged
+			NewMeeting[] input = newMeetings.toArray(new NewMeeting[0]);
+			long now = getNowInMillis();
+			long[] times = new long[input.length];
+			for(int i = 0; i < input.length; i++) {
+				NewMeeting newMeeting = input[i];
+				if(newMeeting == null || newMeeting.getContacts() == null || newMeeting.getDate() == null) {
+					throw new NullPointerException("Meeting arguments may not be null");
+				}
+				times[i] = newMeeting.getDate().toEpochMilli();
+				if(newMeeting.isPast() && times[i] >= now) {
+					throw new IllegalArgumentException("Date may not be in future");
+				}
+				if(!newMeeting.isPast() && times[i] < now) {
+					throw new IllegalArgumentException("Date is in the past");
+				}
+				checkContacts(newMeeting.getContacts());
+			}
+			//sorted once, so that clashing dates are next to each other
+			long[] sortedTimes = times.clone();
+			Arrays.sort(sortedTimes);
+			for(int i = 0; i < sortedTimes.length; i++) {
+				if((i > 0 && sortedTimes[i] == sortedTimes[i - 1]) || meetings.contains(dateKey(sortedTimes[i]))) {
+					throw new IllegalArgumentException("Meeting already exists at that date/time");
+				}
+			}
+			//the dates are now known to differ, so each meeting's date gives its place in date order
+			int firstId = countMeetings + 1;
+			MeetingImpl[] added = new MeetingImpl[input.length];
+			MeetingImpl[] byDate = new MeetingImpl[input.length];
+			for(int i = 0; i < input.length; i++) {
+				NewMeeting newMeeting = input[i];
+				int[] contactIds = sortedContactIds(newMeeting.getContacts());
+				added[i] = newMeeting.isPast()
+						? new PastMeetingImpl(firstId + i, contactIds, times[i], contactLookup, newMeeting.getNotes())
+						: new FutureMeetingImpl(firstId + i, contactIds, times[i], contactLookup);
+				byDate[Arrays.binarySearch(sortedTimes, times[i])] = added[i];
+			}
+			addMeetingsToIndexes(byDate);
+			countMeetings += added.length;
+			for(MeetingImpl meeting: added) {
+				journalRecord(MEETING_RECORD, meeting);
+			}
+			scanned = added.length;
+			return new IdRange(firstId, added.length);
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.IMPORT_MEETINGS, timed, start, scanned);
+		}
+	}
+
+	@Override
+	public Set<Contact> getContacts(int... ids) {
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		try {
+			return lookupContacts(ids);
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.GET_CONTACTS_BY_ID, timed, start, ids.length);
+		}
+	}
+	
+	/**
+	 * Finds the contacts with the IDs given, as getContacts(int...) does without timing it.
+	 * @param ids the IDs of the contacts
+	 * @return the contacts
+	 * @throws IllegalArgumentException if any of the IDs does not correspond to a real contact
+	 */
+	Set<Contact> lookupContacts(int... ids) {
+		Set<Contact> result = new HashSet<Contact>();
+		for(int id: ids) {
+			Contact contact = lookupContact(id);
+			if(contact == null) {
+				throw new IllegalArgumentException("ID does not correspond to a real contact");
+			}
+			result.add(contact);
+		}
+		return result;
+	}
+
+	@Override
+	public Set<Contact> getContacts(String name) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			if (name == null) {
+				throw new NullPointerException("Parameter may not be null");
+			}
+			if (name == "") {
+				throw new IllegalArgumentException("Parameter may not be empty string");
+			}
+			Set<Contact> result = new HashSet<Contact>();
+			//the name index narrows the search to contacts with every trigram of the name,
+			//names shorter than a trigram are searched for in every contact
+			int[] candidates = nameIndex.candidates(name);
+			scanned = (candidates == null) ? countContacts : candidates.length;
+			if (candidates == null) {
+				for(int id = 1; id <= countContacts; id++) {
+					Contact contact = contacts[id];
+					if(contact != null && contact.getName().contains(name)) {
+						result.add(contact);
+					}
+				}
+			} else {
+				for(int id: candidates) {
+					Contact contact = contacts[id];
+					if(contact.getName().contains(name)) {
+						result.add(contact);
+					}
+				}
+			}
+			return result;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.GET_CONTACTS_BY_NAME, timed, start, scanned);
+		}
+	}
+
+	@Override
+	public List<Contact> getContactsByPrefix(String prefix, int limit) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			if (prefix == null) {
+				throw new NullPointerException("Prefix may not be null");
+			}
+			if (limit < 0) {
+				throw new IllegalArgumentException("Limit may not be negative");
+			}
+			List<Contact> result = new ArrayList<Contact>(Math.min(limit, 16));
+			//names starting with the prefix sort together, from the prefix itself onwards,
+			//so only the matches returned are visited
+			for (Contact contact: contactsByName.tailSet(nameKey(prefix), true)) {
+				if (result.size() == limit) {
+					break;
+				}
+				scanned++;
+				if (!contact.getName().startsWith(prefix)) {
+					break;
+				}
+				result.add(contact);
+			}
+			return result;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.GET_CONTACTS_BY_PREFIX, timed, start, scanned);
+		}
+	}
+
+	@Override
+	public Set<Contact> searchContactNotes(String query) {
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			if (query == null) {
+				throw new NullPointerException("Query may not be null");
+			}
+			ensureNotesIndexed();
+			Set<Contact> result = new HashSet<Contact>();
+			for (int id: contactNotesIndex.search(query)) {
+				result.add(contacts[id]);
+			}
+			scanned = result.size();
+			return result;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.SEARCH_NOTES, timed, start, scanned);
+		}
+	}
+
+	@Override
+	public List<PastMeeting> searchMeetingNotes(String query) {
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			if (query == null) {
+				throw new NullPointerException("Query may not be null");
+			}
+			ensureNotesIndexed();
+			List<MeetingImpl> found = new ArrayList<MeetingImpl>();
+			for (int id: meetingNotesIndex.search(query)) {
+				found.add(meetingsById.get(id));
+			}
+			//compareTo is overridden so based on date
+			Collections.sort(found);
+			List<PastMeeting> result = new ArrayList<PastMeeting>(found.size());
+			for (MeetingImpl meeting: found) {
+				result.add((PastMeeting) meeting);
+			}
+			scanned = result.size();
+			return result;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.SEARCH_NOTES, timed, start, scanned);
+		}
+	}
+
+	/**
+	 * In JOURNAL mode only the changes since the last flush are appended to the journal, and
+	 * the data file is rewritten only once the journal has grown large.
+	 */
+	@Override
+	public void flush() {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		try {
+			ContactManagerEvents.FlushEvent event = new ContactManagerEvents.FlushEvent();
+			event.begin();
+			flushRecords = 0;
+			flushBytes = 0;
+			if (persistenceMode == PersistenceMode.JOURNAL) {
+				flushJournal();
+			} else if (isBinary(persistenceMode)) {
+				try {
+					File newDataFile = new File(BINARY_DATA_FILE_NAME + ".tmp");
+					writeBinarySnapshot(newDataFile);
+					Files.move(newDataFile.toPath(), new File(BINARY_DATA_FILE_NAME).toPath(),
+							StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					writeNotesIndex(new File(BINARY_DATA_FILE_NAME));
+				} catch (IOException ex) {
+					ex.printStackTrace();
+				}
+			} else {
+				try {
+					writeTextSnapshot(new File(DATA_FILE_NAME));
+					writeNotesIndex(new File(DATA_FILE_NAME));
+				} catch (IOException ex) {
+					ex.printStackTrace();
+				}
+			}
+			event.end();
+			if (event.shouldCommit()) {
+				event.persistenceMode = persistenceMode.name();
+				event.recordsWritten = flushRecords;
+				event.bytesWritten = flushBytes;
+				event.commit();
+			}
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.FLUSH, timed, start, 0);
+		}
+	}
+	
+	/**
+	 * Writes every contact and meeting to a file in the text data file format, whatever
+	 * the persistence mode of this ContactManager.
+	 * 
+	 * @param file the file to write
+	 */
+	public void exportText(File file) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			writeTextSnapshot(file);
+			scanned = countContacts + meetingsById.size();
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.EXPORT_TEXT, timed, start, scanned);
+		}
+	}
+	
+	/**
+	 * Starts recording this ContactManager's metrics (see ContactManagerMetrics).  Until this
+	 * is called nothing is recorded, and each measured operation only checks that metrics and
+	 * slow operation events (see ContactManagerEvents) are off.  Loading the data happens before metrics can be turned on, so it is always timed
+	 * and the result is added to the metrics when they start.
+	 * 
+	 * @return the metrics, the same each time this is called
+	 */
+	public synchronized ContactManagerMetrics enableMetrics() {
+		if (metrics == null) {
+			ContactManagerMetrics newMetrics = new ContactManagerMetrics();
+			newMetrics.record(ContactManagerMetrics.Operation.LOAD, loadNanos, loadRecordCount);
+			newMetrics.recordBytesRead(loadBytesRead);
+			metrics = newMetrics;
+		}
+		return metrics;
+	}
+	
+	/**
+	 * @param mode a persistence mode
+	 * @return true if the mode saves to the binary data file
+	 */
+	private static boolean isBinary(PersistenceMode mode) {
+		return mode == PersistenceMode.BINARY_SNAPSHOT || mode == PersistenceMode.MAPPED_SNAPSHOT;
+	}
+	
+	/**
+	 * Writes every contact and meeting to a binary data file (see BinarySnapshotWriter).
+	 * @param file the file to write
+	 * @throws IOException if the file can not be written
+	 */
+	private void writeBinarySnapshot(File file) throws IOException {
+		int contactCount = 0;
+		for(int id = 1; id <= countContacts; id++) {
+			if(contacts[id] != null) {
+				contactCount++;
+			}
+		}
+		BinarySnapshotWriter out = new BinarySnapshotWriter(file, contactCount, meetings.size());
+		try {
+			for(int id = 1; id <= countContacts; id++) {
+				Contact contact = contacts[id];
+				if(contact != null) {
+					out.writeContact(id, contact.getName(), contact.getNotes());
+				}
+			}
+			for(MeetingImpl meeting: meetings) {
+				out.writeMeeting(meeting.getId(), meeting.getTimeInMillis(), notesOf(meeting), meeting.getContactIds());
+			}
+			out.finish();
+		} finally {
+			out.close();
+		}
+		countBytesWritten(file.length());
+		flushRecords += countContacts + meetings.size();
+	}
+	
+	/**
+	 * @param attending the contacts attending a meeting
+	 * @return the IDs of the contacts in ascending order, shared with any other meeting
+	 * with the same contacts
+	 */
+	private int[] sortedContactIds(Set<Contact> attending) {
+		int[] ids = new int[attending.size()];
+		int i = 0;
+		for(Contact contact: attending) {
+			ids[i++] = contact.getId();
+		}
+		Arrays.sort(ids);
+		return attendeeSets.intern(ids);
+	}
+	
+	/**
+	 * Appends pending changes to the journal, compacting it into the data file when it holds
+	 * more than half as many records as the data it describes, so that the cost of compacting
+	 * is spread over at least that many changes.
+	 */
+	private void flushJournal() {
+		try {
+			File journalFile = new File(JOURNAL_FILE_NAME);
+			long journalLength = journalFile.length();
+			flushRecords += journal.flush();
+			countBytesWritten(journalFile.length() - journalLength);
+			int journalRecords = journal.getRecordsInFile();
+			if (journalNeedsCompaction || (journalRecords > MIN_RECORDS_BEFORE_COMPACTION
+					&& journalRecords * 2 > countContacts + meetingsById.size())) {
+				compactJournal();
+			}
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Folds the journal into the data file: a new data file is written alongside the old one
+	 * and moved over it, then the journal is emptied.  Journal records hold whole contacts
+	 * and meetings, so if the journal is not emptied (e.g. the program stops first) replaying
+	 * it over the new data file gives the same contacts and meetings (see
+	 * replaceMeetingInIndexes).
+	 * @throws IOException if the data file can not be replaced or the journal emptied
+	 */
+	private void compactJournal() throws IOException {
+		File dataFile = new File(DATA_FILE_NAME);
+		File newDataFile = new File(DATA_FILE_NAME + ".tmp");
+		writeTextSnapshot(newDataFile);
+		Files.move(newDataFile.toPath(), dataFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		journal.clear();
+		journalNeedsCompaction = false;
+		writeNotesIndex(dataFile);
+	}
+	
+	/**
+	 * Saves the notes indexes, if they have been built, next to the data file just written,
+	 * so that the next ContactManager to load that data file need not read every note to index it.  The index
+	 * file records the data file's name, length and modification time, and is only used
+	 * while the data file still matches them.
+	 * @param dataFile the data file the indexes describe
+	 * @throws IOException if the index file can not be written
+	 */
+	private void writeNotesIndex(File dataFile) throws IOException {
+		if (!notesIndexed) {
+			//the notes have not been searched, so are left to be indexed after the next load
+			Files.deleteIfExists(new File(NOTES_INDEX_FILE_NAME).toPath());
+			return;
+		}
+		File newIndexFile = new File(NOTES_INDEX_FILE_NAME + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(newIndexFile)));
+		try {
+			out.writeUTF(NOTES_INDEX_HEADER);
+			out.writeUTF(dataFile.getName());
+			out.writeLong(dataFile.length());
+			out.writeLong(dataFile.lastModified());
+			contactNotesIndex.write(out);
+			meetingNotesIndex.write(out);
+		} finally {
+			out.close();
+		}
+		Files.move(newIndexFile.toPath(), new File(NOTES_INDEX_FILE_NAME).toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		countBytesWritten(new File(NOTES_INDEX_FILE_NAME).length());
+	}
+	
+	/**
+	 * Loads the saved notes indexes if they were written for the data file given as it is now.
+	 * @param dataFile the data file CM was loaded from
+	 * @return true if the indexes were loaded, false if they need to be built
+	 */
+	private boolean readNotesIndex(File dataFile) {
+		File indexFile = new File(NOTES_INDEX_FILE_NAME);
+		if (!indexFile.exists() || !dataFile.exists()) {
+			return false;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			if (!in.readUTF().equals(NOTES_INDEX_HEADER)
+					|| !in.readUTF().equals(dataFile.getName())
+					|| in.readLong() != dataFile.length()
+					|| in.readLong() != dataFile.lastModified()) {
+				return false;
+			}
+			contactNotesIndex.read(in);
+			meetingNotesIndex.read(in);
+			return true;
+		} catch (IOException ex) {
+			ex.printStackTrace();
+			contactNotesIndex.clear();
+			meetingNotesIndex.clear();
+			return false;
+		} finally {
+			closeReader(in);
+		}
+	}
+	
+	/**
+	 * Indexes the notes of every contact and PastMeeting held, unless they are indexed
+	 * already.  Unless the indexes were saved with the data file, this is left until the
+	 * notes are first searched, as it reads every note.
+	 */
+	private void ensureNotesIndexed() {
+		decodeMappedSnapshot();
+		if (notesIndexed) {
+			return;
+		}
+		for(int id = 1; id <= countContacts; id++) {
+			if(contacts[id] != null) {
+				contactNotesIndex.add(id, contacts[id].getNotes());
+			}
+		}
+		for(MeetingImpl meeting: meetings) {
+			if(meeting instanceof PastMeeting) {
+				meetingNotesIndex.add(meeting.getId(), ((PastMeeting) meeting).getNotes());
+			}
+		}
+		notesIndexed = true;
+	}
+	
+	/**
+	 * Writes every contact and meeting to a text data file.
+	 * @param file the file to write
+	 * @throws IOException if the file can not be written
+	 */
+	private void writeTextSnapshot(File file) throws IOException {
+		try (PrintWriter out = new PrintWriter(file)) {
+			out.println("contacts");
+			for(int id = 1; id <= countContacts; id++) {
+				if(contacts[id] != null) {
+					out.println(contacts[id].toString());
+				}
+			}
+			out.println("meetings");
+			for(MeetingImpl meeting: meetings) {
+				out.println(meeting.toString());
+			}
+			//PrintWriter keeps its write errors to itself until asked
+			if (out.checkError()) {
+				throw new IOException("Could not write " + file);
+			}
+		}
+		countBytesWritten(file.length());
+		flushRecords += countContacts + meetings.size();
+	}
+	
+	/**
+	 * Loads the data file and, in JOURNAL mode, the changes recorded since it was written.
+	 * The notes indexes saved with the data file are loaded too; if there are none, or they
+	 * are out of date, the notes are indexed when first searched (see ensureNotesIndexed).
+	 */
+	private void loadRecords() {
+		ContactManagerEvents.LoadEvent event = new ContactManagerEvents.LoadEvent();
+		event.begin();
+		timingLoad = event.isEnabled();
+		long start = System.nanoTime();
+		File binaryFile = new File(BINARY_DATA_FILE_NAME);
+		File dataFile;
+		if (persistenceMode == PersistenceMode.MAPPED_SNAPSHOT && binaryFile.exists()
+				&& binaryFile.length() <= Integer.MAX_VALUE) {
+			dataFile = binaryFile;
+			loadMappedSnapshot(dataFile);
+		} else if (isBinary(persistenceMode) && binaryFile.exists()) {
+			dataFile = binaryFile;
+			loadBinarySnapshot(dataFile);
+		} else {
+			//in the binary modes a text data file is imported if there is no binary one yet
+			dataFile = new File(DATA_FILE_NAME);
+			loadTextSnapshot(dataFile);
+		}
+		//with the indexes loaded, the journal's changes update them as they are replayed
+		int recordsInDataFile = countContacts + meetingCount();
+		boolean indexRead = readNotesIndex(dataFile);
+		notesIndexed = indexRead;
+		if (journal != null) {
+			replayJournal();
+		}
+		loadNanos = System.nanoTime() - start;
+		loadBytesRead = dataFile.length() + ((journal != null) ? new File(JOURNAL_FILE_NAME).length() : 0)
+				+ (indexRead ? new File(NOTES_INDEX_FILE_NAME).length() : 0);
+		loadRecordCount = countContacts + meetingCount();
+		event.end();
+		if (event.shouldCommit()) {
+			event.persistenceMode = persistenceMode.name();
+			event.dataFile = dataFile.getName();
+			event.recordsLoaded = recordsInDataFile;
+			event.journalRecordsReplayed = loadJournalRecords;
+			event.bytesRead = loadBytesRead;
+			event.buildTime = loadBuildNanos;
+			event.parseTime = loadNanos - loadBuildNanos;
+			event.commit();
+		}
+		timingLoad = false;
+	}
+	
+	/**
+	 * Opens a binary data file mapped into memory.  Only the IDs of the contacts and meetings
+	 * and where each starts are read: one is decoded from the mapping when it is first looked
+	 * up by ID, and the rest by the first operation that needs them all (see
+	 * decodeMappedSnapshot).  The notes of past meetings are left in the mapped file until
+	 * they are asked for (see MappedPastMeetingImpl), so they are neither decoded nor held on
+	 * the heap.  The mapping stays valid after the file is replaced by a later flush().
+	 * @param file the file to read, no larger than 2GB
+	 */
+	private void loadMappedSnapshot(File file) {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer dataFile = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			BinarySnapshotReader in = new BinarySnapshotReader(dataFile.duplicate(), true);
+			//no record starts at position zero, where the file's header is
+			int[] contactPositions = new int[in.getContactCount() + 1];
+			int lastContactId = 0;
+			while (in.skipContact()) {
+				contactPositions = putPosition(contactPositions, in.getId(), in.getRecordPosition());
+				lastContactId = Math.max(lastContactId, in.getId());
+			}
+			int[] meetingPositions = new int[1];
+			int lastMeetingId = 0;
+			while (in.skipMeeting()) {
+				meetingPositions = putPosition(meetingPositions, in.getId(), in.getRecordPosition());
+				lastMeetingId = Math.max(lastMeetingId, in.getId());
+			}
+			//keep the counters ahead of every ID in the file so new ones never reuse one
+			countContacts = lastContactId;
+			countMeetings = lastMeetingId;
+			ensureContactCapacity(lastContactId + 1);
+			mappedReader = in;
+			mappedDataFile = dataFile;
+			mappedContactPositions = contactPositions;
+			mappedMeetingPositions = meetingPositions;
+			mappedMeetingCount = Math.max(in.getMeetingCount(), 0);
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Records where a contact or meeting starts in the mapped data file.
+	 * @param positions the positions so far, indexed by ID
+	 * @param id the ID of the contact or meeting
+	 * @param position where it starts
+	 * @return the positions, grown if needed to hold the ID
+	 */
+	private static int[] putPosition(int[] positions, int id, int position) {
+		if (id >= positions.length) {
+			positions = Arrays.copyOf(positions, Math.max(id + 1, positions.length * 2));
+		}
+		positions[id] = position;
+		return positions;
+	}
+	
+	/**
+	 * Creates a contact still only in the mapped data file, when it is looked up by ID.  It
+	 * is added to the name indexes with the others by decodeMappedSnapshot().
+	 * @param id the ID of the contact
+	 * @return the contact, or null if there is no contact with that ID
+	 */
+	private Contact decodeMappedContact(int id) {
+		int position = (id < mappedContactPositions.length) ? mappedContactPositions[id] : 0;
+		if (position == 0) {
+			return null;
+		}
+		try {
+			mappedReader.readContactAt(position);
+		} catch (IOException ex) {
+			throw new IllegalStateException("Data File has error", ex);
+		}
+		ContactImpl contact = new ContactImpl(id, mappedReader.getName(), mappedReader.getNotes());
+		contact.setNotesListener(this::contactNotesAdded);
+		contacts[id] = contact;
+		return contact;
+	}
+	
+	/**
+	 * Creates a meeting still only in the mapped data file, when it is looked up by ID.  It
+	 * is added to the date ordered set, timelines and counts with the others by
+	 * decodeMappedSnapshot().
+	 * @param id the ID of the meeting
+	 * @return the meeting, or null if there is no meeting with that ID
+	 */
+	private MeetingImpl decodeMappedMeeting(int id) {
+		int position = (id > 0 && id < mappedMeetingPositions.length) ? mappedMeetingPositions[id] : 0;
+		if (position == 0) {
+			return null;
+		}
+		try {
+			mappedReader.readMeetingAt(position);
+		} catch (IOException ex) {
+			throw new IllegalStateException("Data File has error", ex);
+		}
+		//taken before the contacts are checked, as decoding a contact moves the reader on
+		long meetingTime = mappedReader.getTimeInMillis();
+		int notesPosition = mappedReader.getNotesPosition();
+		int[] meetingContactIds = checkContactIds(mappedReader.getContactIds());
+		MeetingImpl meeting;
+		if (isInPast(meetingTime)) {
+			meeting = new MappedPastMeetingImpl(id, meetingContactIds, meetingTime, contactLookup,
+					mappedDataFile, notesPosition);
+		} else {
+			meeting = new FutureMeetingImpl(id, meetingContactIds, meetingTime, contactLookup);
+		}
+		meetingsById.put(id, meeting);
+		return meeting;
+	}
+	
+	/**
+	 * Decodes every contact and meeting still only in the mapped data file and adds them all
+	 * to the indexes, keeping those already looked up by ID as callers may hold them.  Every
+	 * operation but the lookups by ID calls this first; in other modes it does nothing.
+	 */
+	void decodeMappedSnapshot() {
+		if (mappedReader == null) {
+			return;
+		}
+		//a notes index read with the data file already holds the notes, which are left in the file
+		boolean indexed = notesIndexed;
+		notesIndexed = false;
+		for (int id = 1; id <= countContacts; id++) {
+			Contact contact = lookupContact(id);
+			if (contact != null) {
+				addContactToIndexes(contact);
+			}
+		}
+		MeetingImpl[] decoded = new MeetingImpl[mappedMeetingCount];
+		int count = 0;
+		for (int id = 1; id < mappedMeetingPositions.length; id++) {
+			MeetingImpl meeting = lookupMeeting(id);
+			if (meeting != null) {
+				decoded[count++] = meeting;
+			}
+		}
+		//compareTo is overridden so based on date
+		Arrays.sort(decoded, 0, count);
+		addMeetingsToIndexes(Arrays.copyOf(decoded, count));
+		notesIndexed = indexed;
+		mappedReader = null;
+		mappedDataFile = null;
+		mappedContactPositions = null;
+		mappedMeetingPositions = null;
+	}
+	
+	/**
+	 * Decodes anything left in the mapped data file and indexes the notes if that has not
+	 * been done, so that no later query changes CM (which ConcurrentContactManagerImpl needs,
+	 * as it runs queries side by side).
+	 */
+	void finishLoading() {
+		ensureNotesIndexed();
+	}
+	
+	/**
+	 * @return the number of meetings held, including those still only in the mapped data file
+	 */
+	private int meetingCount() {
+		return (mappedReader != null) ? mappedMeetingCount : meetingsById.size();
+	}
+	
+	/**
+	 * Loads every contact and meeting from a binary data file.
+	 * @param file the file to read
+	 */
+	private void loadBinarySnapshot(File file) {
+		BinarySnapshotReader in = null;
+		try {
+			in = new BinarySnapshotReader(file);
+			while (in.nextContact()) {
+				loadContact(in.getId(), in.getName(), in.getNotes());
+			}
+			while (in.nextMeeting()) {
+				loadMeeting(in.getId(), in.getTimeInMillis(), in.getNotes(), in.getContactIds());
+			}
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		} finally {
+			closeReader(in);
+		}
+	}
+	
+	/**
+	 * Loads every contact and meeting from a text data file.
+	 * @param file the file to read, which need not exist
+	 */
+	private void loadTextSnapshot(File file) {
+        if(!file.exists()) {
+        	return;	
+        }	
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new FileReader(file));
+			String line;
+			if(!(line = in.readLine()).equals("contacts")) {
+				throw new IllegalStateException("Data File has error");
+			};
+			//load the contacts
+			String[] contactToLoad;
+			while((line = in.readLine()) != null && !line.equals("meetings")) {
+				contactToLoad = line.split(CSV_SPLIT_STRING, -1);
+				createContactFromString(contactToLoad);
+			}
+			//load the meetings
+			String[] meetingToLoad;
+			while((line = in.readLine()) != null) {
+				meetingToLoad = line.split(CSV_SPLIT_STRING, -1);
+				createMeetingFromString(meetingToLoad);
+			}
+		} catch (FileNotFoundException ex) {
+			ex.printStackTrace();
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		} finally {
+			closeReader(in);
+		}
+	}
+	
+	/**
+	 * Applies the journal's records on top of the data loaded from the data file.
+	 * A last record only partly written when the program stopped is dropped by the journal,
+	 * and a record that can not be read ends the replay; either way the journal is
+	 * compacted at the next flush.
+	 */
+	private void replayJournal() {
+		List<String> records;
+		try {
+			records = journal.readRecords();
+		} catch (IOException ex) {
+			ex.printStackTrace();
+			return;
+		}
+		loadJournalRecords = records.size();
+		if (journal.partialRecordDropped()) {
+			journalNeedsCompaction = true;
+		}
+		for (String record: records) {
+			String[] fields = record.split(CSV_SPLIT_STRING, -1);
+			String[] recordToLoad = Arrays.copyOfRange(fields, 1, fields.length);
+			try {
+				if (fields[0].equals(CONTACT_RECORD)) {
+					createContactFromString(recordToLoad);
+				} else if (fields[0].equals(MEETING_RECORD)) {
+					createMeetingFromString(recordToLoad);
+				} else {
+					throw new IllegalStateException("Journal record has error");
+				}
+			} catch (RuntimeException ex) {
+				ex.printStackTrace();
+				journalNeedsCompaction = true;
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Adds a record of a contact or meeting's current state to the journal, if CM has one.
+	 * @param type CONTACT_RECORD or MEETING_RECORD
+	 * @param contactOrMeeting the contact or meeting, written as in the data file
+	 */
+	private void journalRecord(String type, Object contactOrMeeting) {
+		if (journal != null) {
+			journal.append(type + CSV_SPLIT_STRING + contactOrMeeting.toString());
+		}
+	}
+	
+	/**
+	 * Records notes added to one of CM's contacts through Contact.addNotes().
+	 * @param contact the contact
+	 * @param note the notes added
+	 */
+	void contactNotesAdded(ContactImpl contact, String note) {
+		//notes are added after a space, so the words already indexed are unchanged
+		if (notesIndexed) {
+			contactNotesIndex.add(contact.getId(), note);
+		}
+		journalRecord(CONTACT_RECORD, contact);
+	}
+	
+	/**
+	 *Creates a contact in ContactManager based on the array.  If CM already has a contact with
+	 *that ID (when replaying the journal) its notes are brought up to date instead.
+	 * @param contactToLoad
+	 */
+	
+	private void createContactFromString(String[] contactToLoad) {
+		loadContact(Integer.parseInt(contactToLoad[0]), contactToLoad[1], contactToLoad[2]);
+	}
+	
+	/**
+	 * Creates a contact read from a data file or the journal.  If CM already has a contact
+	 * with that ID (when replaying the journal) its notes are brought up to date instead.
+	 * @param contactId the contact's ID
+	 * @param name the contact's name
+	 * @param notes the contact's notes
+	 */
+	private void loadContact(int contactId, String name, String notes) {
+		long start = timingLoad ? System.nanoTime() : 0;
+		Contact existing = lookupContact(contactId);
+		if (existing != null) {
+			if (notesIndexed) {
+				contactNotesIndex.update(contactId, existing.getNotes(), notes);
+			}
+			((ContactImpl) existing).restoreNotes(notes);
+		} else {
+			//keep the counter ahead of every loaded ID so new contacts never reuse one
+			countContacts = Math.max(countContacts, contactId);
+			addContactToIndexes(new ContactImpl(contactId, name, notes));
+		}
+		if (timingLoad) {
+			loadBuildNanos += System.nanoTime() - start;
+		}
+	}
+	
+	/**
+	*Creates a meeting in ContactManager based on the array 
+	*@param meetingToLoad 
+	**/
+	private void createMeetingFromString(String[] meetingToLoad) {
+		int meetingId = Integer.parseInt(meetingToLoad[0]);
+		Calendar meetingDate = new GregorianCalendar(
+				Integer.parseInt(meetingToLoad[1]),
+				Integer.parseInt(meetingToLoad[2]),
+				Integer.parseInt(meetingToLoad[3]),
+				Integer.parseInt(meetingToLoad[4]),
+				Integer.parseInt(meetingToLoad[5]));
+		String meetingNotes = meetingToLoad[6];
+		int numberOfContactsAtMtg = meetingToLoad.length - 8;
+		int[] meetingContactIds = new int[numberOfContactsAtMtg];
+		for(int i = 0; i < numberOfContactsAtMtg; i++) {
+			meetingContactIds[i] = Integer.parseInt(meetingToLoad[i+7]); 
+		}
+		loadMeeting(meetingId, meetingDate.getTimeInMillis(), meetingNotes, meetingContactIds);
+	}
+	
+	/**
+	 * Creates a meeting read from a data file or the journal.  Whether it is a PastMeeting or a
+	 * FutureMeeting depends on its date.  If CM already has a meeting with that ID (when
+	 * replaying the journal) it is replaced.
+	 * @param meetingId the meeting's ID
+	 * @param meetingTime the meeting's date in milliseconds since the epoch
+	 * @param meetingNotes the meeting's notes (ignored for a FutureMeeting)
+	 * @param meetingContactIds the IDs of the contacts attending
+	 */
+	private void loadMeeting(int meetingId, long meetingTime, String meetingNotes, int[] meetingContactIds) {
+		int[] contactIds = checkContactIds(meetingContactIds);
+		if (isInPast(meetingTime)) {
+			loadMeeting(new PastMeetingImpl(meetingId, contactIds, meetingTime, contactLookup, meetingNotes));
+		} else {
+			loadMeeting(new FutureMeetingImpl(meetingId, contactIds, meetingTime, contactLookup));
+		}
+	}
+	
+	/**
+	 * Checks that the contacts of a meeting read from a data file or the journal exist, and
+	 * puts their IDs in ascending order (as they are in the binary data file already).
+	 * @param ids the IDs of the contacts attending
+	 * @return the IDs in ascending order, shared with any other meeting with the same contacts
+	 * @throws IllegalArgumentException if any of the IDs does not correspond to a real contact
+	 */
+	private int[] checkContactIds(int[] ids) {
+		boolean sorted = true;
+		for(int i = 0; i < ids.length; i++) {
+			if(lookupContact(ids[i]) == null) {
+				throw new IllegalArgumentException("ID does not correspond to a real contact");
+			}
+			sorted = sorted && (i == 0 || ids[i - 1] < ids[i]);
+		}
+		if(!sorted) {
+			Arrays.sort(ids);
+		}
+		return attendeeSets.intern(ids);
+	}
+	
+	/**
+	 * Adds a meeting read from a data file or the journal to CM, replacing any meeting with
+	 * the same ID.
+	 * @param loadedMeeting the meeting
+	 */
+	private void loadMeeting(MeetingImpl loadedMeeting) {
+		long start = timingLoad ? System.nanoTime() : 0;
+		int meetingId = loadedMeeting.getId();
+		MeetingImpl existing = meetingsById.get(meetingId);
+		if (existing != null) {
+			replaceMeetingInIndexes(existing, loadedMeeting);
+		} else {
+			//keep the counter ahead of every loaded ID so new meetings never reuse one
+			countMeetings = Math.max(countMeetings, meetingId);
+			addMeetingToIndexes(loadedMeeting);
+		}
+		if (timingLoad) {
+			loadBuildNanos += System.nanoTime() - start;
+		}
+	}
+	
+	/**
+	 * Closes the reader
+	 * @param reader
+	 */
+	
+	private void closeReader(Closeable reader) {
+		try {
+			if(reader != null) {
+				reader.close();
+			}
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Returns Contact Manager's clock (date & time) as milliseconds since the epoch.
+	 * Adjusted 'now' by number of days specified for this instance 
+	 * of Contact Manager.  In normal use there will be zero adjustment.
+	 * Adjustment is only used for testing functionality under future dates.
+	 *
+	 *@return now (according to current instance of ContactManager) in milliseconds
+	 */
+	long getNowInMillis() {
+		return System.currentTimeMillis() + clockAdjustmentInMillis;
+	}
+	
 	/**
 	 * Check whether the date provided is in the past
-	 * @param date to be checked
+	 * @param timeInMillis the date to be checked, in milliseconds since the epoch
 	 * @return true if date is in past, otherwise false
 	 */
-	private boolean dateIsInPast(Calendar date) {
-		LocalDateTime checkDate = convertDateFormat(date);
-		return (checkDate.isBefore(getNow()));		
+	private boolean isInPast(long timeInMillis) {
+		return timeInMillis < getNowInMillis();
+	}
+	
+	/**
+	 * Adds a meeting to be held in the future (see addFutureMeeting).
+	 * @param contacts the contacts that will participate in the meeting
+	 * @param timeInMillis the date of the meeting in milliseconds since the epoch
+	 * @return the ID for the meeting
+	 */
+	private int addFutureMeetingAt(Set<Contact> contacts, long timeInMillis) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		try {
+			if(isInPast(timeInMillis)) {
+				throw new IllegalArgumentException("Date is in the past");
+			}
+			checkContacts(contacts);
+			countMeetings++;
+			int meetingId = countMeetings;
+			MeetingImpl meetingToAdd = new FutureMeetingImpl(meetingId, sortedContactIds(contacts), timeInMillis,
+					contactLookup);
+			//contains uses compareTo() which is overridden so based on date
+			if (meetings.contains(meetingToAdd)) {
+				countMeetings--;
+				throw new IllegalArgumentException("Meeting already exists at that date/time");
+			}
+			addMeetingToIndexes(meetingToAdd);
+			journalRecord(MEETING_RECORD, meetingToAdd);
+			return meetingId;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.ADD_FUTURE_MEETING, timed, start, 0);
+		}
+	}
+	
+	/**
+	 * Adds a record of a meeting that took place in the past (see addNewPastMeeting).
+	 * @param contacts the contacts that participated in the meeting
+	 * @param timeInMillis the date of the meeting in milliseconds since the epoch
+	 * @param text notes about the meeting
+	 */
+	private void addNewPastMeetingAt(Set<Contact> contacts, long timeInMillis, String text) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		try {
+			if(!isInPast(timeInMillis)) {
+				throw new IllegalArgumentException("Date may not be in future");
+			}
+			checkContacts(contacts);
+			countMeetings++;
+			int meetingId = countMeetings;
+			MeetingImpl meetingToAdd = new PastMeetingImpl(meetingId, sortedContactIds(contacts), timeInMillis,
+					contactLookup, text);
+			if (meetings.contains(meetingToAdd)) {
+				countMeetings--;
+				throw new IllegalArgumentException("Meeting already exists at that date/time");
+			}
+			addMeetingToIndexes(meetingToAdd);
+			journalRecord(MEETING_RECORD, meetingToAdd);
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.ADD_PAST_MEETING, timed, start, 0);
+		}
+	}
+	
+	/**
+	 * Returns the meetings from the first date up to (but not including) the second.
+	 * Only the meetings between the two dates are visited, found using the date order of
+	 * the meetings held.
+	 * @param from the start of the period in milliseconds since the epoch
+	 * @param to the end of the period in milliseconds since the epoch
+	 * @return the meetings in chronological order
+	 */
+	private List<Meeting> getMeetingListBetween(long from, long to) {
+		decodeMappedSnapshot();
+		boolean timed = isTiming();
+		long start = timed ? System.nanoTime() : 0;
+		int scanned = 0;
+		try {
+			if (to < from) {
+				throw new IllegalArgumentException("End date is before start date");
+			}
+			//any FutureMeetings with a date in past are migrated to PastMeetings
+			migrateFutureMeetings();
+			//as meetings is a SortedSet with compareTo overridden for date order the meetings
+			//are added to result in chronological order.
+			List<Meeting> result = new LinkedList<Meeting>(meetings.subSet(dateKey(from), dateKey(to)));
+			scanned = result.size();
+			return result;
+		} finally {
+			endTiming(ContactManagerMetrics.Operation.MEETING_LIST_BY_DATE, timed, start, scanned);
+		}
+	}
+	
+	/**
+	 * Finds the timelines of a set of contacts.
+	 * @param contacts the contacts
+	 * @return their timelines, in a new array
+	 * @throws IllegalArgumentException if the set is empty or any contact is not known
+	 */
+	private MeetingTimeline[] timelinesOf(Set<Contact> contacts) {
+		if (contacts == null) {
+			throw new NullPointerException("Contacts may not be null");
+		}
+		checkContacts(contacts);
+		MeetingTimeline[] selected = new MeetingTimeline[contacts.size()];
+		int i = 0;
+		for (Contact contact: contacts) {
+			selected[i++] = timelines[contact.getId()];
+		}
+		return selected;
+	}
+
+	/**
+	 * Looks up the meetings in a timeline.
+	 * @param timeline the timeline
+	 * @return its meetings, in chronological order
+	 */
+	private List<Meeting> meetingsIn(MeetingTimeline timeline) {
+		List<Meeting> result = new ArrayList<Meeting>(timeline.size());
+		for (int i = 0; i < timeline.size(); i++) {
+			result.add(meetingsById.get(timeline.getMeetingId(i)));
+		}
+		return result;
+	}
+
+	/**
+	 * @param timeline a timeline
+	 * @return the most entries a binary search of the timeline reads
+	 */
+	private static int searchSteps(MeetingTimeline timeline) {
+		return 32 - Integer.numberOfLeadingZeros(timeline.size());
+	}
+	
+	/**
+	 * @param selected some timelines
+	 * @return the number of entries in them altogether
+	 */
+	private static int entriesIn(MeetingTimeline[] selected) {
+		int entries = 0;
+		for (MeetingTimeline timeline: selected) {
+			entries += timeline.size();
+		}
+		return entries;
+	}
+	
+	/**
+	 * @return true if operations need timing, as metrics or slow operation events are on
+	 */
+	boolean isTiming() {
+		return metrics != null || ContactManagerEvents.isSlowOperationEnabled();
+	}
+	
+	/**
+	 * Records a call of an operation in the metrics, if they are on, and as a slow operation
+	 * event if it took long enough.  It is called in a finally block, so that calls that throw
+	 * are recorded too (with the elements scanned before they threw, usually none).
+	 * @param operation the operation
+	 * @param timed what isTiming() returned when it began
+	 * @param start System.nanoTime() when it began, if it was timed
+	 * @param elementsScanned the number of elements it scanned
+	 */
+	void endTiming(ContactManagerMetrics.Operation operation, boolean timed, long start,
+			int elementsScanned) {
+		if (!timed) {
+			return;
+		}
+		long nanos = System.nanoTime() - start;
+		ContactManagerMetrics current = metrics;
+		if (current != null) {
+			current.record(operation, nanos, elementsScanned);
+		}
+		ContactManagerEvents.slowOperation(operation, nanos, elementsScanned);
+	}
+	
+	/**
+	 * Counts bytes written, for the flush event and the metrics if they are on.
+	 * @param bytes the number of bytes written
+	 */
+	private void countBytesWritten(long bytes) {
+		flushBytes += bytes;
+		ContactManagerMetrics current = metrics;
+		if (current != null) {
+			current.recordBytesWritten(bytes);
+		}
+	}
+	
+	/**
+	 * Checks the name and notes of a contact to be added.
+	 * @param name the name of the contact
+	 * @param notes notes about the contact
+	 * @throws NullPointerException if the name or notes are null
+	 * @throws IllegalArgumentException if the name is the empty string
+	 */
+	private void checkNewContact(String name, String notes) {
+		if(name == null || notes == null) {
+			throw new NullPointerException("Name/Notes may not be null");
+		}
+		//as some methods search contacts by name do not allow empty string however
+		//notes may be empty string as not searched for (and we have feature to add later)
+		if(name == "") {
+			throw new IllegalArgumentException("Name may not be empty string"); 
+		}
 	}
 	
 	/**
@@ -430,23 +1916,445 @@ public class ContactManagerImpl implements ContactManager {
 		if(contacts.size() == 0) {
 			throw new IllegalArgumentException("Contact Set Empty");
 		}	
-		if(!this.contacts.containsAll(contacts)) {
+		for(Contact contact: contacts) {
+			if(!isKnownContact(contact)) {
+				throw new IllegalArgumentException("Contact unknown");
+			}
+		}
+	}
+	
+	/**
+	 * Finds where a page of a contact's meetings starts: the first meeting after the one
+	 * the cursor marks.  A cursor holds the date and ID of the last meeting on a page, in
+	 * base 36 (see meetingPage), and meetings are found by date in the timeline so the
+	 * page starts in the right place even if meetings have been added since.
+	 * @param timeline the contact's timeline
+	 * @param cursor null for the first page, otherwise the cursor from the previous page
+	 * @param pageSize the most meetings on the page
+	 * @return the position in the timeline the page starts at
+	 * @throws IllegalArgumentException if the cursor or the page size is not valid
+	 */
+	private int pageStart(MeetingTimeline timeline, String cursor, int pageSize) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("Page size must be positive");
+		}
+		if (cursor == null) {
+			return 0;
+		}
+		long time;
+		int meetingId;
+		try {
+			int separator = cursor.indexOf('.');
+			time = Long.parseLong(cursor.substring(0, separator), Character.MAX_RADIX);
+			meetingId = Integer.parseInt(cursor.substring(separator + 1), Character.MAX_RADIX);
+		} catch (RuntimeException ex) {
+			throw new IllegalArgumentException("Cursor is not valid");
+		}
+		int index = timeline.firstIndexAtOrAfter(time);
+		//meeting dates are unique, so the marked meeting is the only one at its date
+		if (index < timeline.size() && timeline.getTime(index) == time
+				&& timeline.getMeetingId(index) == meetingId) {
+			index++;
+		}
+		return index;
+	}
+	
+	/**
+	 * Makes a page of the meetings in part of a contact's timeline.
+	 * @param <T> the type of meeting in that part of the timeline
+	 * @param timeline the contact's timeline
+	 * @param start the position of the first meeting on the page
+	 * @param end the position after the last meeting that may be on the page
+	 * @param pageSize the most meetings on the page
+	 * @return the page, with a cursor marking its last meeting if there are more after it
+	 */
+	@SuppressWarnings("unchecked")
+	private <T extends Meeting> MeetingPage<T> meetingPage(MeetingTimeline timeline, int start, int end,
+			int pageSize) {
+		int pageEnd = (int) Math.min(end, (long) start + pageSize);
+		List<T> result = new ArrayList<T>(Math.max(0, pageEnd - start));
+		for (int i = start; i < pageEnd; i++) {
+			result.add((T) meetingsById.get(timeline.getMeetingId(i)));
+		}
+		String nextCursor = null;
+		if (pageEnd < end) {
+			nextCursor = Long.toString(timeline.getTime(pageEnd - 1), Character.MAX_RADIX) + "."
+					+ Integer.toString(timeline.getMeetingId(pageEnd - 1), Character.MAX_RADIX);
+		}
+		return new MeetingPage<T>(result, nextCursor);
+	}
+	
+	/**
+	 * Returns the timeline of one of CM's contacts.
+	 * @param contact the contact
+	 * @return the contact's timeline
+	 * @throws IllegalArgumentException if the contact is not held by CM
+	 */
+	private MeetingTimeline timelineOf(Contact contact) {
+		if(!isKnownContact(contact)) {
 			throw new IllegalArgumentException("Contact unknown");
 		}
+		return timelines[contact.getId()];
+	}
+	
+	/**
+	 * Returns the contact held by CM with the ID given.
+	 * Contact IDs are allocated sequentially so the contacts are held in an array indexed by ID.
+	 * @param id the ID of the contact
+	 * @return the contact, or null if there is no contact with that ID
+	 */
+	private Contact lookupContact(int id) {
+		//the array is read once, as ConcurrentContactManagerImpl may look up while it is grown
+		Contact[] held = contacts;
+		if(id <= 0 || id >= held.length) {
+			return null;
+		}
+		Contact contact = held[id];
+		if(contact == null && mappedReader != null) {
+			contact = decodeMappedContact(id);
+		}
+		return contact;
+	}
+	
+	/**
+	 * Returns the meeting held by CM with the ID given.
+	 * @param id the ID of the meeting
+	 * @return the meeting, or null if there is no meeting with that ID
+	 */
+	MeetingImpl lookupMeeting(int id) {
+		MeetingImpl meeting = meetingsById.get(id);
+		if (meeting == null && mappedReader != null) {
+			meeting = decodeMappedMeeting(id);
+		}
+		return meeting;
+	}
+	
+	/**
+	 * Checks that a contact is held by CM, i.e. that the contact with the same ID is equal to it.
+	 * @param contact the contact to be checked, may be null
+	 * @return true if the contact is known, otherwise false
+	 */
+	private boolean isKnownContact(Contact contact) {
+		if(contact == null) {
+			return false;
+		}
+		Contact known = lookupContact(contact.getId());
+		return known != null && known.equals(contact);
+	}
+	
+	/**
+	 * Adds a contact to the ID indexed array, growing the array if needed, and to the
+	 * name and notes indexes.
+	 * @param contact the contact to be added
+	 */
+	private void addContactToIndexes(Contact contact) {
+		int id = contact.getId();
+		ensureContactCapacity(id + 1);
+		contacts[id] = contact;
+		timelines[id] = new MeetingTimeline();
+		nameIndex.add(id, contact.getName());
+		contactsByName.add(contact);
+		if(notesIndexed) {
+			contactNotesIndex.add(id, contact.getNotes());
+		}
+		if(contact instanceof ContactImpl) {
+			((ContactImpl) contact).setNotesListener(this::contactNotesAdded);
+		}
+	}
+	
+	/**
+	 * Grows the arrays indexed by contact ID, if needed, to hold the number of IDs given.
+	 * @param capacity the number of IDs (one more than the largest ID) to hold
+	 */
+	private void ensureContactCapacity(int capacity) {
+		if(capacity > contacts.length) {
+			int newCapacity = Math.max(capacity, contacts.length * 2);
+			contacts = Arrays.copyOf(contacts, newCapacity);
+			timelines = Arrays.copyOf(timelines, newCapacity);
+			coAttendance = Arrays.copyOf(coAttendance, newCapacity);
+		}
+	}
+	
+	/**
+	 * Makes a contact to search the name ordered set of contacts with.  Contact IDs start at
+	 * one, so the key comes before every contact with that name.
+	 * @param name the name to search from
+	 * @return a contact with that name and ID zero
+	 */
+	private Contact nameKey(String name) {
+		return new ContactImpl(0, name, "");
+	}
+	
+	/**
+	 * Makes a meeting to search the date ordered set of meetings with, as meetings are
+	 * compared by date alone.  The key is never added to CM.
+	 * @param timeInMillis the date to search from or to, in milliseconds since the epoch
+	 * @return a meeting with that date and no ID or contacts
+	 */
+	private MeetingImpl dateKey(long timeInMillis) {
+		return new FutureMeetingImpl(0, new int[0], timeInMillis, contactLookup);
+	}
+	
+	/**
+	 * Adds a meeting to the date ordered set, the ID index, the timeline of each contact
+	 * attending, the counts of meetings between each pair of them and the count of meetings
+	 * in its month.  FutureMeetings are also queued for migration, and the notes of
+	 * PastMeetings are indexed.
+	 * @param meeting the meeting to be added
+	 */
+	private void addMeetingToIndexes(MeetingImpl meeting) {
+		meetings.add(meeting);
+		for(int contactId: meeting.getContactIds()) {
+			timelines[contactId].add(meeting.getTimeInMillis(), meeting.getId());
+		}
+		indexMeeting(meeting);
+	}
+	
+	/**
+	 * Adds a batch of meetings to every index, as addMeetingToIndexes() does for one.  An
+	 * empty date ordered set is built straight from the batch, in linear time, and the
+	 * batch's meetings are merged into each contact's timeline in one pass.
+	 * @param byDate the meetings, in date order, with no two on the same date or on a date
+	 * already taken
+	 */
+	private void addMeetingsToIndexes(MeetingImpl[] byDate) {
+		if (meetings.isEmpty()) {
+			meetings.addAll(new SortedArraySet<MeetingImpl>(byDate, null));
+		} else {
+			for(MeetingImpl meeting: byDate) {
+				meetings.add(meeting);
+			}
+		}
+		meetingsById.ensureCapacity(meetingsById.size() + byDate.length);
+		//the batch's entries for every contact's timeline in one pair of arrays, grouped by
+		//contact (from offsets[contactId]) and in date order within each contact
+		int[] offsets = new int[countContacts + 2];
+		for(MeetingImpl meeting: byDate) {
+			for(int contactId: meeting.getContactIds()) {
+				offsets[contactId + 1]++;
+			}
+		}
+		for(int contactId = 1; contactId < offsets.length; contactId++) {
+			offsets[contactId] += offsets[contactId - 1];
+		}
+		long[] entryTimes = new long[offsets[countContacts + 1]];
+		int[] entryIds = new int[entryTimes.length];
+		int[] nextEntry = Arrays.copyOf(offsets, countContacts + 1);
+		for(MeetingImpl meeting: byDate) {
+			for(int contactId: meeting.getContactIds()) {
+				int entry = nextEntry[contactId]++;
+				entryTimes[entry] = meeting.getTimeInMillis();
+				entryIds[entry] = meeting.getId();
+			}
+			indexMeeting(meeting);
+		}
+		for(int contactId = 1; contactId <= countContacts; contactId++) {
+			int count = offsets[contactId + 1] - offsets[contactId];
+			if(count > 0) {
+				timelines[contactId].addAll(entryTimes, entryIds, offsets[contactId], count);
+			}
+		}
+	}
+	
+	/**
+	 * Adds a meeting to the ID index, the counts of meetings between each pair of contacts
+	 * attending and the count of meetings in its month, queues a FutureMeeting for migration
+	 * and indexes the notes of a PastMeeting: everything but the date ordered set and the
+	 * timelines, which are added to one meeting or a whole batch at a time.
+	 * @param meeting the meeting to be added
+	 */
+	private void indexMeeting(MeetingImpl meeting) {
+		meetingsById.put(meeting.getId(), meeting);
+		if (meeting instanceof FutureMeeting) {
+			pendingMigrations.add(meeting);
+		} else if (notesIndexed) {
+			meetingNotesIndex.add(meeting.getId(), ((PastMeeting) meeting).getNotes());
+		}
+		int[] contactIds = meeting.getContactIds();
+		if (contactIds.length > 1) {
+			countCoAttendance(contactIds);
+		}
+		meetingsPerMonth.merge(YearMonth.from(Instant.ofEpochMilli(meeting.getTimeInMillis()).atZone(zone)),
+				1, Integer::sum);
+	}
+	
+	/**
+	 * Adds one to the number of meetings between each pair of contacts attending a meeting.
+	 * Each contact's counts are held in a map from the other contact's ID, created when the
+	 * contact first meets someone, so memory grows with the number of pairs that have met.
+	 * @param contactIds the contacts attending
+	 */
+	private void countCoAttendance(int[] contactIds) {
+		for (int contactId: contactIds) {
+			IntIntMap counts = coAttendance[contactId];
+			if (counts == null) {
+				counts = new IntIntMap();
+				coAttendance[contactId] = counts;
+			}
+			for (int otherId: contactIds) {
+				if (otherId != contactId) {
+					counts.increment(otherId);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Swaps a meeting held by CM for a new version of the same meeting (same ID and date),
+	 * keeping the date ordered set, the ID index and the notes index in step.  The contacts'
+	 * timelines refer to the meeting by ID and date so need no change.  A new FutureMeeting
+	 * (as when a journal replays a meeting already loaded) is queued for migration, as the
+	 * queue only migrates the meeting object it holds if that is still the one CM holds.
+	 * @param oldMeeting the meeting currently held
+	 * @param newMeeting the meeting to hold in its place
+	 */
+	private void replaceMeetingInIndexes(MeetingImpl oldMeeting, MeetingImpl newMeeting) {
+		meetings.remove(oldMeeting);
+		meetings.add(newMeeting);
+		meetingsById.put(newMeeting.getId(), newMeeting);
+		if (newMeeting instanceof FutureMeeting) {
+			pendingMigrations.add(newMeeting);
+		}
+		if (notesIndexed) {
+			meetingNotesIndex.update(newMeeting.getId(), notesOf(oldMeeting), notesOf(newMeeting));
+		}
+	}
+	
+	/**
+	 * @param meeting a meeting
+	 * @return the meeting's notes, or the empty string for a FutureMeeting
+	 */
+	private static String notesOf(Meeting meeting) {
+		return (meeting instanceof PastMeeting) ? ((PastMeeting) meeting).getNotes() : "";
 	}
 	
 	/**
-	* Migrates any FutureMeetings with a date in the past into PastMeetings  
+	* Migrates any FutureMeetings with a date in the past into PastMeetings.
+	* FutureMeetings wait in a queue ordered by date, so only the meetings that have become
+	* due since the last migration are looked at.  The time used is returned so that a query
+	* can treat exactly the same meetings as past.
+	* 
+	* @return the time (according to CM's clock) that meetings were migrated up to, in milliseconds
 	*/
-	private void migrateFutureMeetings() {
-		List<FutureMeeting> migrateList = new LinkedList<FutureMeeting>();
-		for (Meeting mtg: meetings) {
-			if(mtg instanceof FutureMeeting && dateIsInPast(mtg.getDate())) {
-				migrateList.add((FutureMeeting) mtg);
-			}	
-		}
-		while (migrateList.size() != 0) {
-			addMeetingNotes(migrateList.remove(0).getId(), "");
+	long migrateFutureMeetings() {
+		long now = getNowInMillis();
+		MeetingImpl next = pendingMigrations.peek();
+		if (next == null || next.getTimeInMillis() >= now) {
+			return now;
+		}
+		ContactManagerEvents.MigrationEvent event = new ContactManagerEvents.MigrationEvent();
+		event.begin();
+		int migrated = 0;
+		while ((next = pendingMigrations.peek()) != null && next.getTimeInMillis() < now) {
+			pendingMigrations.remove();
+			//skip meetings that have already been made into PastMeetings by addMeetingNotes
+			if (meetingsById.get(next.getId()) == next) {
+				MeetingImpl pastMeeting = new PastMeetingImpl(next.getId(), next.getContactIds(), next.getTimeInMillis(),
+						contactLookup, "");
+				replaceMeetingInIndexes(next, pastMeeting);
+				journalRecord(MEETING_RECORD, pastMeeting);
+				migrated++;
+			}
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.meetingsMigrated = migrated;
+			event.commit();
+		}
+		ContactManagerMetrics current = metrics;
+		if (migrated > 0 && current != null) {
+			current.recordMigrations(migrated);
+		}
+		return now;
+	}
+	
+	/**
+	 * Copies meetings in a period into an array, in date order, so that
+	 * ConcurrentContactManagerImpl can walk them a chunk at a time, only holding its lock
+	 * while each chunk is copied.
+	 * @param contact the contact whose meetings are copied, or null for every meeting
+	 * @param from the start of the period (inclusive), in milliseconds since the epoch
+	 * @param to the end of the period (exclusive), no earlier than the start
+	 * @param chunk where the meetings are copied to
+	 * @return the number of meetings copied, less than the chunk's length only if there are
+	 * no more in the period
+	 * @throws IllegalArgumentException if the contact is not held by CM
+	 */
+	int copyMeetings(Contact contact, long from, long to, MeetingImpl[] chunk) {
+		int count = 0;
+		if (contact == null) {
+			for (MeetingImpl meeting: meetings.subSet(dateKey(from), dateKey(to))) {
+				if (count == chunk.length) {
+					break;
+				}
+				chunk[count++] = meeting;
+			}
+			return count;
+		}
+		MeetingTimeline timeline = timelineOf(contact);
+		for (int i = timeline.firstIndexAtOrAfter(from); i < timeline.size() && timeline.getTime(i) < to
+				&& count < chunk.length; i++) {
+			chunk[count++] = meetingsById.get(timeline.getMeetingId(i));
+		}
+		return count;
+	}
+	
+	/**
+	 * @return the date of the next FutureMeeting due to be migrated, in milliseconds since
+	 * the epoch, or Long.MAX_VALUE if there are no FutureMeetings
+	 */
+	long nextMigrationTime() {
+		MeetingImpl next = pendingMigrations.peek();
+		return (next == null) ? Long.MAX_VALUE : next.getTimeInMillis();
+	}
+	
+	/**
+	 * Walks part of a contact's timeline for a stream, looking each meeting up by ID only as
+	 * the stream reaches it.  Meetings are only ever added to a timeline, and adding one
+	 * moves those after it, so the timeline's size is checked to detect changes made
+	 * while the stream is in use.
+	 * @param <T> the type of meeting in the part walked
+	 */
+	private class TimelineSpliterator<T extends Meeting> implements Spliterator<T> {
+
+		private MeetingTimeline timeline;
+		private int index;
+		private int end;
+		private int expectedSize;
+
+		private TimelineSpliterator(MeetingTimeline timeline, int start, int end) {
+			this.timeline = timeline;
+			this.index = start;
+			this.end = end;
+			this.expectedSize = timeline.size();
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public boolean tryAdvance(Consumer<? super T> action) {
+			if (timeline.size() != expectedSize) {
+				throw new ConcurrentModificationException();
+			}
+			if (index >= end) {
+				return false;
+			}
+			action.accept((T) meetingsById.get(timeline.getMeetingId(index++)));
+			return true;
+		}
+
+		@Override
+		public Spliterator<T> trySplit() {
+			return null;
+		}
+
+		@Override
+		public long estimateSize() {
+			return end - index;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | NONNULL;
 		}
 	}
 }
@@ -0,0 +1,150 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only log of the changes made to a ContactManager since its data file was last
+ * written.  Each record is one line holding the full current state of one contact or one
+ * meeting, so replaying a record more than once gives the same result as replaying it once.
+ * Records are held in memory until flush() appends them to the file.  A record is only
+ * complete once the newline ending it has been written, so a record cut off part way through
+ * (e.g. by a crash during flush()) is recognised and dropped when the journal is read.
+ *
+ * @author markkingsbury
+ */
+
+public class ContactManagerJournal {
+
+	private File file;
+	private List<String> pendingRecords;
+	private int recordsInFile;
+	private boolean partialRecordDropped;
+
+	/**
+	 * Constructor for a journal kept in the file given.  The file need not exist yet.
+	 * @param file the journal file
+	 */
+	public ContactManagerJournal(File file) {
+		this.file = file;
+		this.pendingRecords = new ArrayList<String>();
+		this.recordsInFile = 0;
+		this.partialRecordDropped = false;
+	}
+
+	/**
+	 * Adds a record to be written at the next flush().
+	 * @param record the record, a single line
+	 */
+	public void append(String record) {
+		pendingRecords.add(record);
+	}
+
+	/**
+	 * Appends the pending records to the journal file and forces them to disk.
+	 * @return the number of records written
+	 * @throws IOException if the file can not be written
+	 */
+	public int flush() throws IOException {
+		int written = pendingRecords.size();
+		if (written == 0) {
+			return 0;
+		}
+		FileOutputStream stream = new FileOutputStream(file, true);
+		try {
+			Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+			for (String record: pendingRecords) {
+				out.write(record);
+				out.write('\n');
+			}
+			out.flush();
+			stream.getChannel().force(false);
+		} finally {
+			stream.close();
+		}
+		pendingRecords.clear();
+		recordsInFile += written;
+		return written;
+	}
+
+	/**
+	 * Reads every complete record in the journal file, in the order they were written.  If the
+	 * file ends part way through a record, that record is cut from the file, so that records
+	 * appended later start on a line of their own.
+	 * @return the records (empty if there is no journal file)
+	 * @throws IOException if the file can not be read or a partial record cut from it
+	 */
+	public List<String> readRecords() throws IOException {
+		List<String> records = new ArrayList<String>();
+		partialRecordDropped = false;
+		if (!file.exists()) {
+			return records;
+		}
+		byte[] contents = Files.readAllBytes(file.toPath());
+		int end = contents.length;
+		while (end > 0 && contents[end - 1] != '\n') {
+			end--;
+		}
+		if (end < contents.length) {
+			truncate(end);
+			partialRecordDropped = true;
+		}
+		String complete = new String(contents, 0, end, StandardCharsets.UTF_8);
+		int start = 0;
+		for (int lineEnd = complete.indexOf('\n'); lineEnd >= 0; lineEnd = complete.indexOf('\n', start)) {
+			records.add(complete.substring(start, lineEnd));
+			start = lineEnd + 1;
+		}
+		recordsInFile = records.size();
+		return records;
+	}
+
+	/**
+	 * @return true if the last readRecords() found a partial record at the end of the file
+	 * and dropped it
+	 */
+	public boolean partialRecordDropped() {
+		return partialRecordDropped;
+	}
+
+	/**
+	 * Cuts the journal file down to the length given and forces the change to disk.
+	 * @param length the new length in bytes
+	 * @throws IOException if the file can not be truncated
+	 */
+	private void truncate(long length) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+		try {
+			channel.truncate(length);
+			channel.force(false);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Empties the journal file, once its records are safely held in the data file.
+	 * Records not yet flushed are discarded too, as the data file holds them.
+	 * @throws IOException if the file can not be truncated
+	 */
+	public void clear() throws IOException {
+		new FileOutputStream(file).close();
+		pendingRecords.clear();
+		recordsInFile = 0;
+	}
+
+	/**
+	 * @return the number of records in the journal file
+	 */
+	public int getRecordsInFile() {
+		return recordsInFile;
+	}
+}
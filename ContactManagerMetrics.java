@@ -0,0 +1,222 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The metrics of one ContactManager, recorded once they are turned on with
+ * ContactManagerImpl.enableMetrics(): a latency histogram and a count of the elements scanned
+ * for each operation measured, the number of FutureMeetings migrated to PastMeetings, and the
+ * bytes written by flush() and read when the data was loaded.  Every ContactManager operation,
+ * and exportText(), is measured under one of the Operations below.  Calls that throw are
+ * measured too, counting only the elements scanned before they threw (usually none).
+ *
+ * Recording uses only atomic counters, so any number of threads may record at once.  The
+ * metrics can be read as a snapshot, or over JMX once registered with registerMBean().
+ *
+ * @author markkingsbury
+ */
+
+public class ContactManagerMetrics implements ContactManagerMetricsMBean {
+
+	private static final AtomicInteger REGISTERED = new AtomicInteger();
+
+	/**
+	 * The operations measured.
+	 */
+	public enum Operation {
+		/** addNewContact(); nothing is scanned */
+		ADD_CONTACT,
+		/** addFutureMeeting(); nothing is scanned */
+		ADD_FUTURE_MEETING,
+		/** addNewPastMeeting(); nothing is scanned */
+		ADD_PAST_MEETING,
+		/** addNewContacts(); the contacts added */
+		IMPORT_CONTACTS,
+		/** addMeetings(); the meetings added */
+		IMPORT_MEETINGS,
+		/** addMeetingNotes(); nothing is scanned */
+		ADD_MEETING_NOTES,
+		/** getMeeting(), getPastMeeting() and getFutureMeeting(); nothing is scanned */
+		GET_MEETING,
+		/** getContacts(int...); the IDs looked up */
+		GET_CONTACTS_BY_ID,
+		/** getContacts(String); the contacts whose names were checked */
+		GET_CONTACTS_BY_NAME,
+		/** getContactsByPrefix(); the contacts visited in name order */
+		GET_CONTACTS_BY_PREFIX,
+		/**
+		 * getFutureMeetingList(Contact); the timeline entries read, counting each step of the
+		 * search for the time now as one
+		 */
+		FUTURE_MEETING_LIST,
+		/** getPastMeetingList(Contact); the timeline entries read, as for FUTURE_MEETING_LIST */
+		PAST_MEETING_LIST,
+		/**
+		 * forEachFutureMeeting() and forEachPastMeeting(), including the time taken by the
+		 * action; the timeline entries read, as for FUTURE_MEETING_LIST
+		 */
+		FOR_EACH_MEETING,
+		/**
+		 * futureMeetings(), pastMeetings() and meetings(Instant, Instant); only creating the
+		 * stream is timed, as its meetings are read as it is consumed, so nothing is scanned
+		 */
+		MEETING_STREAM,
+		/**
+		 * getFutureMeetingPage() and getPastMeetingPage(); the timeline entries read, as for
+		 * FUTURE_MEETING_LIST, and each step of the search for the cursor
+		 */
+		MEETING_PAGE,
+		/** getFutureMeetingList(Calendar or LocalDate) and getMeetingList(); the meetings returned */
+		MEETING_LIST_BY_DATE,
+		/** getMeetingsWithAll() and getMeetingsWithAny(); the entries in the contacts' timelines */
+		MEETINGS_WITH_CONTACTS,
+		/** getTopCollaborators(); the contacts ranked (those the contact has met) */
+		TOP_COLLABORATORS,
+		/**
+		 * countMeetings(), nextMeeting() and lastMeeting(); the timeline entries read, counting
+		 * each step of a search as one
+		 */
+		COUNT_MEETINGS,
+		/** countMeetingsByMonth(); the months in the period */
+		MEETINGS_BY_MONTH,
+		/** searchContactNotes() and searchMeetingNotes(); the contacts or meetings found */
+		SEARCH_NOTES,
+		/** flush(); nothing is scanned */
+		FLUSH,
+		/** exportText(); the contacts and meetings written */
+		EXPORT_TEXT,
+		/** loading the data when the ContactManager was created; the contacts and meetings loaded */
+		LOAD
+	}
+
+	private LatencyHistogram[] latencies;
+	private LongAdder[] scanned;
+	private LongAdder migrations;
+	private LongAdder bytesWritten;
+	private LongAdder bytesRead;
+
+	/**
+	 * Creates metrics with nothing recorded.
+	 */
+	public ContactManagerMetrics() {
+		int operations = Operation.values().length;
+		this.latencies = new LatencyHistogram[operations];
+		this.scanned = new LongAdder[operations];
+		for (int i = 0; i < operations; i++) {
+			latencies[i] = new LatencyHistogram();
+			scanned[i] = new LongAdder();
+		}
+		this.migrations = new LongAdder();
+		this.bytesWritten = new LongAdder();
+		this.bytesRead = new LongAdder();
+	}
+
+	/**
+	 * Records one call of an operation.
+	 * @param operation the operation
+	 * @param nanos how long it took
+	 * @param elementsScanned the number of elements it scanned
+	 */
+	void record(Operation operation, long nanos, long elementsScanned) {
+		latencies[operation.ordinal()].record(nanos);
+		if (elementsScanned != 0) {
+			scanned[operation.ordinal()].add(elementsScanned);
+		}
+	}
+
+	/**
+	 * @param count the number of FutureMeetings just migrated to PastMeetings
+	 */
+	void recordMigrations(long count) {
+		migrations.add(count);
+	}
+
+	/**
+	 * @param bytes the number of bytes just written
+	 */
+	void recordBytesWritten(long bytes) {
+		bytesWritten.add(bytes);
+	}
+
+	/**
+	 * @param bytes the number of bytes just read
+	 */
+	void recordBytesRead(long bytes) {
+		bytesRead.add(bytes);
+	}
+
+	/**
+	 * @return a copy of the metrics as they are now, which later calls do not change
+	 */
+	public ContactManagerMetrics snapshot() {
+		ContactManagerMetrics copy = new ContactManagerMetrics();
+		for (int i = 0; i < latencies.length; i++) {
+			copy.latencies[i] = latencies[i].copy();
+			copy.scanned[i].add(scanned[i].sum());
+		}
+		copy.migrations.add(migrations.sum());
+		copy.bytesWritten.add(bytesWritten.sum());
+		copy.bytesRead.add(bytesRead.sum());
+		return copy;
+	}
+
+	/**
+	 * @param operation an operation
+	 * @return the latencies of its calls
+	 */
+	public LatencyHistogram getLatencies(Operation operation) {
+		return latencies[operation.ordinal()];
+	}
+
+	/**
+	 * @param operation an operation
+	 * @return the number of elements its calls scanned
+	 */
+	public long getScanned(Operation operation) {
+		return scanned[operation.ordinal()].sum();
+	}
+
+	@Override
+	public long getMigrations() {
+		return migrations.sum();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	@Override
+	public String[] getOperationSummaries() {
+		Operation[] operations = Operation.values();
+		String[] summaries = new String[operations.length];
+		for (int i = 0; i < operations.length; i++) {
+			LatencyHistogram histogram = latencies[i];
+			summaries[i] = String.format("%s calls=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus scanned=%d",
+					operations[i], histogram.getCount(), histogram.getMean() / 1e3,
+					histogram.getValueAtPercentile(50) / 1e3, histogram.getValueAtPercentile(99) / 1e3,
+					histogram.getMax() / 1e3, scanned[i].sum());
+		}
+		return summaries;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server, named
+	 * ContactManager:type=Metrics,id=n where n counts the metrics registered.
+	 * @return the name they were registered with
+	 * @throws JMException if they can not be registered
+	 */
+	public ObjectName registerMBean() throws JMException {
+		ObjectName name = new ObjectName("ContactManager:type=Metrics,id=" + REGISTERED.incrementAndGet());
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+		return name;
+	}
+}
@@ -0,0 +1,31 @@
+/**
+ * The management interface of ContactManagerMetrics, through which a ContactManager's
+ * metrics can be read over JMX (e.g. in JConsole).
+ *
+ * @author markkingsbury
+ */
+
+public interface ContactManagerMetricsMBean {
+
+	/**
+	 * @return the number of FutureMeetings made into PastMeetings as their dates passed
+	 */
+	long getMigrations();
+
+	/**
+	 * @return the number of bytes written to the data file, journal and notes index
+	 */
+	long getBytesWritten();
+
+	/**
+	 * @return the number of bytes read from the data file, journal and notes index on loading
+	 */
+	long getBytesRead();
+
+	/**
+	 * @return one line for each operation measured, giving the number of calls, the mean,
+	 * 50th, 99th percentile and largest latency in microseconds, and the number of elements
+	 * scanned
+	 */
+	String[] getOperationSummaries();
+}
@@ -1,14 +1,42 @@
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.GregorianCalendar;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -18,22 +46,58 @@ import org.junit.rules.ExpectedException;
 
 public class ContactManagerTest {
 
+	//added to the real time by the managers newCM() makes, so that each test starts on 1 Dec 2014:
+	//after the past meeting and before the future meetings the helper methods add, whatever today's date
+	private long clockAdjustment;
+	
 	@Before
 	public void setUpBeforeEachTest() {
-		//delete contacts.txt if it exists
-		File file = new File("./cw4/contacts.txt");
-        if(file.exists()) {
-        	try {
-                Files.deleteIfExists(file.toPath());
-            } catch (IOException | SecurityException ex) {
-                ex.printStackTrace();
-            }	
-        }	
+		setClock(new GregorianCalendar(2014, 11, 1));
+		//delete contacts.txt (and the journal, binary data file and notes index) if it exists
+		for (String fileName: new String[] {"./cw4/contacts.txt", "./cw4/contacts.log", "./cw4/contacts.bin",
+				"./cw4/contacts.idx"}) {
+			File file = new File(fileName);
+	        if(file.exists()) {
+	        	try {
+	                Files.deleteIfExists(file.toPath());
+	            } catch (IOException | SecurityException ex) {
+	                ex.printStackTrace();
+	            }	
+	        }	
+		}
 	}
 	
 	@Rule
 	public ExpectedException thrown = ExpectedException.none();
 	
+	//helper methods to make managers whose clock runs from 1 Dec 2014, or from wherever setClock() moves it
+	
+	public void setClock(Calendar date) {
+		clockAdjustment = date.getTimeInMillis() - System.currentTimeMillis();
+	}
+	
+	public ContactManagerImpl newCM() {
+		return newCM(PersistenceMode.TEXT_SNAPSHOT);
+	}
+	
+	public ContactManagerImpl newCM(PersistenceMode persistenceMode) {
+		return new ContactManagerImpl(persistenceMode) {
+			@Override
+			long getNowInMillis() {
+				return System.currentTimeMillis() + clockAdjustment;
+			}
+		};
+	}
+	
+	public ConcurrentContactManagerImpl newConcurrentCM() {
+		return new ConcurrentContactManagerImpl() {
+			@Override
+			long getNowInMillis() {
+				return System.currentTimeMillis() + clockAdjustment;
+			}
+		};
+	}
+	
 	//helper methods to add contacts and meetings
 	
 	public void helpAddContactsAndMeetings(ContactManager cm) {
@@ -197,7 +261,26 @@ public class ContactManagerTest {
 		cm.addNewContact("Cathy Kingsbury", "ck notes");
 		cm.getContacts(4);
 	}
-	
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testContactIdZeroDoesNotCorrespondToARealContact() {
+		ContactManager cm = newCM();
+		cm.addNewContact("Anna Kingsbury", "ak notes");
+		cm.getContacts(0);
+	}
+
+	@Test
+	public void testGetContactsByIdAmongManyContacts() {
+		ContactManager cm = newCM();
+		for (int i = 1; i <= 300; i++) {
+			cm.addNewContact("Contact " + i, "");
+		}
+		Set<Contact> expected = new HashSet<Contact>();
+		expected.add(new ContactImpl(7, "Contact 7", ""));
+		expected.add(new ContactImpl(300, "Contact 300", ""));
+		assertEquals(expected, cm.getContacts(7, 300));
+	}
+
 	@Test
 	public void testGetAnEmptySetBackIfPassNoIds() {
 		ContactManager cm = new ContactManagerImpl();
@@ -263,6 +346,91 @@ public class ContactManagerTest {
 		assertEquals(expected, actual);	
 	}
 
+	@Test
+	public void testGetContactsByNameChecksTrigramsAreTogether() {
+		ContactManager cm = newCM();
+		cm.addNewContact("Bell Stella", "bs notes");
+		cm.addNewContact("Bella Smith", "bsm notes");
+		cm.addNewContact("Bo", "b notes");
+		cm.flush();
+		ContactManager reloadedCM = newCM();
+		//"Bell Stella" has every trigram of "Bella" but not together
+		assertEquals(reloadedCM.getContacts(2), reloadedCM.getContacts("Bella"));
+		assertEquals(reloadedCM.getContacts(1, 2), reloadedCM.getContacts("Bell"));
+		assertEquals(reloadedCM.getContacts(1, 2, 3), reloadedCM.getContacts("B"));
+		assertEquals(reloadedCM.getContacts(3), reloadedCM.getContacts("Bo"));
+	}
+
+	@Test
+	public void testGetContactsByPrefixInNameOrderUpToLimit() {
+		ContactManager cm = newCM();
+		cm.addNewContact("Brian Kingsbury", "bk notes");
+		cm.addNewContact("Anna Kingsbury", "ak notes");
+		cm.addNewContact("Brian Adams", "ba notes");
+		cm.addNewContact("Bob", "b notes");
+		cm.addNewContact("Brian Adams", "second ba notes");
+		cm.addNewContact("Cathy Smith", "cs notes");
+		List<Contact> actual = cm.getContactsByPrefix("Br", 10);
+		assertEquals(3, actual.size());
+		assertEquals(3, actual.get(0).getId());
+		assertEquals(5, actual.get(1).getId());
+		assertEquals(1, actual.get(2).getId());
+		assertEquals(2, cm.getContactsByPrefix("B", 2).size());
+		assertEquals(4, cm.getContactsByPrefix("B", 2).get(0).getId());
+		assertEquals(0, cm.getContactsByPrefix("Anna Kingsburys", 10).size());
+		assertEquals(6, cm.getContactsByPrefix("", 10).size());
+	}
+
+	@Test
+	public void testGetContactsByPrefixExceptionOnNegativeLimit() {
+		ContactManager cm = newCM();
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Limit may not be negative");
+		cm.getContactsByPrefix("A", -1);
+	}
+
+	//tests for searching notes
+
+	@Test
+	public void testSearchNotesMatchesEveryWordAndFollowsChanges() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		helpAddMorePastMeetings(cm);
+		assertEquals(cm.getContacts(1), cm.searchContactNotes("AK, Notes"));
+		assertEquals(6, cm.searchContactNotes("notes").size());
+		assertEquals(0, cm.searchContactNotes("ak bk").size());
+		cm.getContacts(2).iterator().next().addNotes("Budget review");
+		assertEquals(cm.getContacts(2), cm.searchContactNotes("budget"));
+		List<PastMeeting> found = cm.searchMeetingNotes("notes");
+		assertEquals(4, found.size());
+		assertEquals(3, found.get(0).getId());
+		assertEquals(2, found.get(3).getId());
+		//the notes become "notesagreed budget", so meeting 3 no longer has the word "notes"
+		cm.addMeetingNotes(3, "agreed budget");
+		assertEquals(3, cm.searchMeetingNotes("notes").size());
+		assertEquals(3, cm.searchMeetingNotes("notesagreed budget").get(0).getId());
+		cm.flush();
+		assertEquals(true, new File("./cw4/contacts.idx").exists());
+		ContactManager reloadedCM = newCM();
+		assertEquals(cm.searchContactNotes("budget"), reloadedCM.searchContactNotes("budget"));
+		assertEquals(3, reloadedCM.searchMeetingNotes("budget").get(0).getId());
+		assertEquals(3, reloadedCM.searchMeetingNotes("notes").size());
+	}
+
+	@Test
+	public void testSavedNotesIndexIsOnlyUsedWithItsDataFile() {
+		ContactManager textCM = newCM();
+		textCM.addNewContact("Anna Kingsbury", "alpha");
+		textCM.flush();
+		ContactManager binaryCM = newCM(PersistenceMode.BINARY_SNAPSHOT);
+		binaryCM.getContacts(1).iterator().next().addNotes("beta");
+		binaryCM.flush();
+		//the saved index was written for the binary data file, not the older text one
+		ContactManager reloadedCM = newCM();
+		assertEquals(0, reloadedCM.searchContactNotes("beta").size());
+		assertEquals(1, reloadedCM.searchContactNotes("alpha").size());
+	}
+
 	@Test(expected = NullPointerException.class)
 	public void testErrorHandleGetContactsByNullParameter () {
 		ContactManager cm = new ContactManagerImpl();
@@ -409,8 +577,49 @@ public class ContactManagerTest {
 		thrown.expect(IllegalArgumentException.class);
 		thrown.expectMessage("Meeting with that ID is in the past");	
 		cm.getFutureMeeting(2);
-	}	
-	
+	}
+
+	@Test
+	public void testGetMeetingFindsEveryIdAmongManyMeetings() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		for (int i = 0; i < 500; i++) {
+			cm.addNewPastMeeting(cm.getContacts(1 + i % 6), new GregorianCalendar(2000, 0, 1, 0, i), "mtg " + i);
+		}
+		for (int id = 3; id < 503; id++) {
+			assertEquals(id, cm.getMeeting(id).getId());
+			assertEquals("mtg " + (id - 3), cm.getPastMeeting(id).getNotes());
+		}
+		assertNull(cm.getMeeting(503));
+	}
+
+	@Test
+	public void testGetMeetingContactsAreTheContactsHeldByCM() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		cm.getContacts(5).iterator().next().addNotes("more notes");
+		MeetingImpl meeting = (MeetingImpl) cm.getMeeting(2);
+		assertEquals(cm.getContacts(4, 5, 6), meeting.getContacts());
+		assertEquals(true, meeting.hasContact(5));
+		assertEquals(false, meeting.hasContact(1));
+		assertEquals(4, meeting.getContactIds()[0]);
+		assertEquals(6, meeting.getContactIds()[2]);
+	}
+
+	@Test
+	public void testMeetingsWithTheSameContactsShareOneContactIdArray() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		helpAddMorePastMeetings(cm);
+		cm.addFutureMeeting(cm.getContacts(4, 1), new GregorianCalendar(2015, 8, 20, 9, 0));
+		assertSame(((MeetingImpl) cm.getMeeting(3)).getContactIds(), ((MeetingImpl) cm.getMeeting(6)).getContactIds());
+		cm.flush();
+		ContactManager reloadedCM = newCM();
+		assertSame(((MeetingImpl) reloadedCM.getMeeting(3)).getContactIds(),
+				((MeetingImpl) reloadedCM.getMeeting(6)).getContactIds());
+		assertEquals(cm.getMeeting(6).getContacts(), reloadedCM.getMeeting(6).getContacts());
+	}
+
 	//exception handling on addFutureMeeting
 	
 	@Test
@@ -731,6 +940,74 @@ public class ContactManagerTest {
 		cm.addNewPastMeeting(moreExpectedContacts, secondExpectedDate, "notes");
 	}
 	
+	//tests for getMeetingList(Calendar, Calendar)
+	
+	@Test
+	public void testGetMeetingListReturnsMeetingsInPeriodInOrder() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		helpAddMorePastMeetings(cm);
+		Calendar from = new GregorianCalendar(2000, 8, 13, 0, 2);
+		Calendar to = new GregorianCalendar(2000, 8, 13, 23, 59);
+		List<Meeting> actual = cm.getMeetingList(from, to);
+		assertEquals(2, actual.size());
+		assertEquals(cm.getContacts(1, 4), actual.get(0).getContacts());
+		assertEquals(cm.getContacts(2, 5), actual.get(1).getContacts());
+	}
+	
+	@Test
+	public void testGetMeetingListReturnsEmptyListForEmptyPeriod() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		helpAddMorePastMeetings(cm);
+		Calendar date = new GregorianCalendar(2000, 8, 13, 0, 2);
+		assertEquals(0, cm.getMeetingList(date, date).size());
+	}
+	
+	@Test
+	public void testGetMeetingListExceptionWhenEndBeforeStart() {
+		ContactManager cm = newCM();
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("End date is before start date");
+		cm.getMeetingList(new GregorianCalendar(2001, 0, 1), new GregorianCalendar(2000, 0, 1));
+	}
+
+	//tests for java.time overloads
+	
+	@Test
+	public void testAddFutureMeetingWithInstantAndGetItBackByDay() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		LocalDate day = LocalDate.of(2099, 1, 2);
+		Instant date = day.atTime(10, 30).atZone(ZoneId.systemDefault()).toInstant();
+		int id = cm.addFutureMeeting(cm.getContacts(1), date);
+		assertEquals(date.toEpochMilli(), cm.getFutureMeeting(id).getDate().getTimeInMillis());
+		List<Meeting> actual = cm.getFutureMeetingList(day);
+		assertEquals(1, actual.size());
+		assertEquals(id, actual.get(0).getId());
+		assertEquals(0, cm.getFutureMeetingList(day.plusDays(1)).size());
+	}
+	
+	@Test
+	public void testAddNewPastMeetingWithInstantAndGetItBackByPeriod() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		Instant date = Instant.parse("2001-06-01T12:00:00Z");
+		cm.addNewPastMeeting(cm.getContacts(2), date, "instant notes");
+		List<Meeting> actual = cm.getMeetingList(date, date.plusSeconds(1));
+		assertEquals(1, actual.size());
+		assertEquals("instant notes", ((PastMeeting) actual.get(0)).getNotes());
+	}
+	
+	@Test
+	public void testAddFutureMeetingWithInstantExceptionWhenInPast() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Date is in the past");
+		cm.addFutureMeeting(cm.getContacts(1), Instant.parse("2001-06-01T12:00:00Z"));
+	}
+
 	//testing writing and reading contacts.txt
 	
 	@Test
@@ -770,6 +1047,173 @@ public class ContactManagerTest {
 		secondCM.flush();
 	}
 	
+	//testing the journal
+	
+	@Test
+	public void testJournalFlushDoesNotWriteDataFileAndIsReadBack() {
+		ContactManager firstCM = newCM(PersistenceMode.JOURNAL);
+		helpAddContactsAndMeetings(firstCM);
+		firstCM.flush();
+		assertEquals(false, new File("./cw4/contacts.txt").exists());
+		ContactManager secondCM = newCM(PersistenceMode.JOURNAL);
+		assertEquals(firstCM.getContacts(1, 2, 3, 4, 5, 6), secondCM.getContacts(1, 2, 3, 4, 5, 6));
+		assertEquals(firstCM.getMeeting(1).getDate(), secondCM.getMeeting(1).getDate());
+		assertEquals("New Past Meeting Notes", secondCM.getPastMeeting(2).getNotes());
+	}
+	
+	@Test
+	public void testJournalReplaysChangesMadeAfterDataFileWritten() {
+		ContactManager firstCM = newCM();
+		helpAddContactsAndMeetings(firstCM);
+		firstCM.flush();
+		ContactManager secondCM = newCM(PersistenceMode.JOURNAL);
+		secondCM.addMeetingNotes(2, " and more");
+		for (Contact anna: secondCM.getContacts(1)) {
+			anna.addNotes("met again");
+		}
+		secondCM.addNewContact("Garry Gibbon", "gg notes");
+		secondCM.flush();
+		ContactManager thirdCM = newCM(PersistenceMode.JOURNAL);
+		assertEquals("New Past Meeting Notes and more", thirdCM.getPastMeeting(2).getNotes());
+		assertEquals("ak notes met again", thirdCM.getContacts(1).iterator().next().getNotes());
+		assertEquals("Garry Gibbon", thirdCM.getContacts(7).iterator().next().getName());
+	}
+	
+	@Test
+	public void testJournalIsCompactedIntoDataFileWhenLarge() {
+		ContactManager firstCM = newCM(PersistenceMode.JOURNAL);
+		for (int i = 1; i <= 1001; i++) {
+			firstCM.addNewContact("Contact " + i, "");
+		}
+		firstCM.flush();
+		assertEquals(true, new File("./cw4/contacts.txt").exists());
+		assertEquals(0, new File("./cw4/contacts.log").length());
+		ContactManager secondCM = newCM(PersistenceMode.JOURNAL);
+		assertEquals("Contact 1001", secondCM.getContacts(1001).iterator().next().getName());
+	}
+	
+	@Test
+	public void testJournalReplayedOverDataFileHoldingItsMeetingsStillMigrates() {
+		//as left by a failure to empty the journal after compacting it into the data file
+		ContactManager journalCM = newCM(PersistenceMode.JOURNAL);
+		helpAddContactsAndMeetings(journalCM);
+		journalCM.flush();
+		ContactManager snapshotCM = newCM();
+		helpAddContactsAndMeetings(snapshotCM);
+		snapshotCM.flush();
+		ContactManager cm = newCM(PersistenceMode.JOURNAL);
+		//the meeting is still in the future when loaded, and passes afterwards
+		setClock(new GregorianCalendar(2016, 0, 1));
+		Contact anna = cm.getContacts(1).iterator().next();
+		assertEquals(1, cm.getPastMeetingList(anna).get(0).getId());
+		assertEquals(true, cm.getMeeting(1) instanceof PastMeeting);
+	}
+	
+	@Test
+	public void testJournalRecordCutOffInItsNotesIsDropped() throws IOException {
+		ContactManager firstCM = newCM(PersistenceMode.JOURNAL);
+		helpAddContactsAndMeetings(firstCM);
+		firstCM.addNewContact("Garry Gibbon", "gg notes written in full");
+		firstCM.flush();
+		File journalFile = new File("./cw4/contacts.log");
+		byte[] journal = Files.readAllBytes(journalFile.toPath());
+		//cut the last record off part way through its notes
+		Files.write(journalFile.toPath(), Arrays.copyOf(journal, journal.length - 10));
+		ContactManager secondCM = newCM(PersistenceMode.JOURNAL);
+		assertEquals(0, secondCM.getContacts("Garry Gibbon").size());
+		secondCM.addNewContact("Harry Hobbs", "hh notes");
+		secondCM.flush();
+		ContactManager thirdCM = newCM(PersistenceMode.JOURNAL);
+		Contact harry = thirdCM.getContacts(7).iterator().next();
+		assertEquals("Harry Hobbs", harry.getName());
+		assertEquals("hh notes", harry.getNotes());
+		assertEquals(secondCM.getMeeting(1).toString(), thirdCM.getMeeting(1).toString());
+	}
+	
+	//testing the binary data file
+	
+	@Test
+	public void testWriteAndReadBinaryDataFile() {
+		ContactManager firstCM = newCM(PersistenceMode.BINARY_SNAPSHOT);
+		helpAddContactsAndMeetings(firstCM);
+		helpAddMorePastMeetings(firstCM);
+		firstCM.addNewContact("Zoë, \"Quoted\"", "naïve notes");
+		firstCM.flush();
+		assertEquals(false, new File("./cw4/contacts.txt").exists());
+		ContactManager secondCM = newCM(PersistenceMode.BINARY_SNAPSHOT);
+		assertEquals(firstCM.getContacts(1, 2, 3, 4, 5, 6, 7), secondCM.getContacts(1, 2, 3, 4, 5, 6, 7));
+		for (int id = 1; id <= 5; id++) {
+			assertEquals(firstCM.getMeeting(id).getDate(), secondCM.getMeeting(id).getDate());
+			assertEquals(firstCM.getMeeting(id).getContacts(), secondCM.getMeeting(id).getContacts());
+		}
+		assertEquals("New Past Meeting Notes", secondCM.getPastMeeting(2).getNotes());
+	}
+	
+	@Test
+	public void testBinaryModeImportsTextDataFileAndCanExportIt() {
+		ContactManager firstCM = newCM();
+		helpAddContactsAndMeetings(firstCM);
+		firstCM.flush();
+		ContactManagerImpl secondCM = newCM(PersistenceMode.BINARY_SNAPSHOT);
+		assertEquals(firstCM.getContacts(1, 2, 3, 4, 5, 6), secondCM.getContacts(1, 2, 3, 4, 5, 6));
+		secondCM.addNewContact("Garry Gibbon", "gg notes");
+		secondCM.exportText(new File("./cw4/contacts.txt"));
+		ContactManager thirdCM = newCM();
+		assertEquals("Garry Gibbon", thirdCM.getContacts(7).iterator().next().getName());
+		assertEquals("New Past Meeting Notes", thirdCM.getPastMeeting(2).getNotes());
+	}
+	
+	@Test
+	public void testExportToFileThatCanNotBeWrittenCountsNothingWritten() {
+		ContactManagerImpl cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		ContactManagerMetrics metrics = cm.enableMetrics();
+		cm.exportText(new File("./cw4/no such directory/contacts.txt"));
+		assertEquals(0, metrics.getBytesWritten());
+		cm.exportText(new File("./cw4/contacts.txt"));
+		assertEquals(new File("./cw4/contacts.txt").length(), metrics.getBytesWritten());
+	}
+
+	@Test
+	public void testMappedModeReadsPastMeetingNotesFromDataFile() {
+		ContactManager firstCM = newCM(PersistenceMode.BINARY_SNAPSHOT);
+		helpAddContactsAndMeetings(firstCM);
+		helpAddMorePastMeetings(firstCM);
+		firstCM.flush();
+		ContactManager secondCM = newCM(PersistenceMode.MAPPED_SNAPSHOT);
+		assertEquals(firstCM.getContacts(1, 2, 3, 4, 5, 6), secondCM.getContacts(1, 2, 3, 4, 5, 6));
+		for (int id = 1; id <= 5; id++) {
+			assertEquals(firstCM.getMeeting(id).getDate(), secondCM.getMeeting(id).getDate());
+			assertEquals(firstCM.getMeeting(id).getContacts(), secondCM.getMeeting(id).getContacts());
+		}
+		assertEquals("New Past Meeting Notes", secondCM.getPastMeeting(2).getNotes());
+		//the data file can be replaced while the old one is still mapped
+		secondCM.addMeetingNotes(2, "More Notes");
+		secondCM.flush();
+		ContactManager thirdCM = newCM(PersistenceMode.MAPPED_SNAPSHOT);
+		assertEquals(secondCM.getPastMeeting(2).getNotes(), thirdCM.getPastMeeting(2).getNotes());
+		assertEquals(firstCM.getPastMeeting(3).getNotes(), thirdCM.getPastMeeting(3).getNotes());
+	}
+	
+	@Test
+	public void testMappedModeKeepsWhatWasLookedUpByIdAndIndexesNotesWhenSearched() {
+		ContactManager firstCM = newCM(PersistenceMode.BINARY_SNAPSHOT);
+		helpAddContactsAndMeetings(firstCM);
+		//the notes are not searched, so no notes index is saved
+		firstCM.flush();
+		assertEquals(false, new File("./cw4/contacts.idx").exists());
+		ContactManager secondCM = newCM(PersistenceMode.MAPPED_SNAPSHOT);
+		Meeting pastMeeting = secondCM.getMeeting(2);
+		Contact annaJones = secondCM.getContacts(4).iterator().next();
+		annaJones.addNotes("met at the mapped meeting");
+		assertNull(secondCM.getMeeting(3));
+		assertSame(pastMeeting, secondCM.getPastMeetingList(annaJones).get(0));
+		assertSame(annaJones, pastMeeting.getContacts().stream().filter(c -> c.getId() == 4).findFirst().get());
+		assertEquals(Collections.singleton(annaJones), secondCM.searchContactNotes("mapped"));
+		assertEquals(Collections.singletonList(pastMeeting), secondCM.searchMeetingNotes("past"));
+		assertEquals(3, secondCM.getContacts("Jones").size());
+	}
+	
 	// tests for AddMeetingNotes
 	@Test
 	public void testAddMeetingNotesConvertsFutureMtgToPastMtg() {
@@ -1121,6 +1565,22 @@ public class ContactManagerTest {
 		assertEquals(k1MtgContacts, actual.get(4).getContacts());
 	}
 
+	@Test
+	public void testGetPastMeetingListByContactIncludesFutureMtgConvertedByNotes() {
+		ContactManager cm2015 = newCM();
+		helpAddContactsAndMeetings(cm2015);
+		cm2015.flush();
+		setClock(new GregorianCalendar(2015, 11, 1));
+		ContactManager cm2016 = newCM();
+		Contact anna = new ContactImpl(1, "Anna Kingsbury", "ak notes");
+		cm2016.addMeetingNotes(1, "notes");
+		List<PastMeeting> actual = cm2016.getPastMeetingList(anna);
+		assertEquals(1, actual.size());
+		assertEquals(1, actual.get(0).getId());
+		assertEquals("notes", actual.get(0).getNotes());
+		assertEquals(0, cm2016.getFutureMeetingList(anna).size());
+	}
+
 	@Test
 	public void testGetPastMeetingListReturnsEmptyListIfContactExistsNoMtgs() {
 		ContactManager cm = new ContactManagerImpl();
@@ -1176,4 +1636,620 @@ public class ContactManagerTest {
 		secondCM.flush();
 	}
 	
+	// tests for the visitor and stream queries
+	@Test
+	public void testForEachAndStreamQueriesMatchTheListQueries() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		helpAddMoreFutureMeetings(cm);
+		helpAddMorePastMeetings(cm);
+		Contact anna = cm.getContacts(1).iterator().next();
+		List<Meeting> visited = new ArrayList<Meeting>();
+		cm.forEachFutureMeeting(anna, visited::add);
+		assertEquals(cm.getFutureMeetingList(anna), visited);
+		List<PastMeeting> visitedPast = new ArrayList<PastMeeting>();
+		cm.forEachPastMeeting(anna, visitedPast::add);
+		assertEquals(cm.getPastMeetingList(anna), visitedPast);
+		assertEquals(cm.getFutureMeetingList(anna), cm.futureMeetings(anna).collect(Collectors.toList()));
+		assertEquals(cm.getPastMeetingList(anna), cm.pastMeetings(anna).collect(Collectors.toList()));
+		Instant from = new GregorianCalendar(2000, 0, 1).toInstant();
+		Instant to = new GregorianCalendar(2015, 8, 14).toInstant();
+		assertEquals(cm.getMeetingList(from, to), cm.meetings(from, to).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testStreamQueriesOnlyLookUpTheMeetingsUsed() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		helpAddMoreFutureMeetings(cm);
+		Contact anna = cm.getContacts(1).iterator().next();
+		AtomicInteger lookedUp = new AtomicInteger();
+		Meeting first = cm.futureMeetings(anna).peek(meeting -> lookedUp.incrementAndGet()).findFirst().get();
+		assertEquals(cm.getFutureMeetingList(anna).get(0), first);
+		assertEquals(1, lookedUp.get());
+		assertEquals(2, cm.futureMeetings(anna).count());
+	}
+
+	@Test
+	public void testStreamQueryFailsIfCMChangesWhileInUse() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		helpAddMoreFutureMeetings(cm);
+		Contact anna = cm.getContacts(1).iterator().next();
+		Iterator<Meeting> meetings = cm.futureMeetings(anna).iterator();
+		meetings.next();
+		cm.addFutureMeeting(cm.getContacts(1), new GregorianCalendar(2015, 8, 12, 9, 0));
+		thrown.expect(ConcurrentModificationException.class);
+		meetings.next();
+	}
+
+	// tests for paginated queries
+	@Test
+	public void testPastMeetingPagesFollowOnFromTheirCursors() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		Set<Contact> anna = cm.getContacts(1);
+		for (int i = 0; i < 25; i++) {
+			cm.addNewPastMeeting(anna, new GregorianCalendar(2000, 0, 1, 0, i * 2), "mtg " + i);
+		}
+		Contact contact = anna.iterator().next();
+		MeetingPage<PastMeeting> page = cm.getPastMeetingPage(contact, null, 10);
+		assertEquals(10, page.getMeetings().size());
+		assertEquals("mtg 0", page.getMeetings().get(0).getNotes());
+		//a meeting added before the cursor does not move the next page
+		cm.addNewPastMeeting(anna, new GregorianCalendar(2000, 0, 1, 0, 1), "earlier");
+		List<PastMeeting> rest = new ArrayList<PastMeeting>();
+		while (page.hasNextPage()) {
+			page = cm.getPastMeetingPage(contact, page.getNextCursor(), 10);
+			rest.addAll(page.getMeetings());
+		}
+		assertEquals(15, rest.size());
+		assertEquals("mtg 10", rest.get(0).getNotes());
+		assertEquals("mtg 24", rest.get(14).getNotes());
+		assertNull(page.getNextCursor());
+		assertEquals(1, cm.getFutureMeetingPage(contact, null, 10).getMeetings().size());
+	}
+
+	@Test
+	public void testMeetingPageExceptionOnCursorNotFromMeetingPage() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Cursor is not valid");
+		cm.getPastMeetingPage(cm.getContacts(4).iterator().next(), "page 2", 10);
+	}
+
+	// tests for multi-contact queries
+	@Test
+	public void testGetMeetingsWithAllContacts() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		helpAddMorePastMeetings(cm);
+		helpAddMoreFutureMeetings(cm);
+		List<Meeting> together = cm.getMeetingsWithAll(cm.getContacts(1, 4));
+		assertEquals(2, together.size());
+		assertEquals(new GregorianCalendar(2000, 8, 13, 00, 2), together.get(0).getDate());
+		assertEquals(new GregorianCalendar(2015, 8, 13, 00, 2), together.get(1).getDate());
+		assertEquals(1, cm.getMeetingsWithAll(cm.getContacts(1, 2, 3)).size());
+		assertEquals(0, cm.getMeetingsWithAll(cm.getContacts(1, 2, 4)).size());
+	}
+
+	@Test
+	public void testGetMeetingsWithAnyContactHasNoDuplicates() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		helpAddMorePastMeetings(cm);
+		helpAddMoreFutureMeetings(cm);
+		List<Meeting> any = cm.getMeetingsWithAny(cm.getContacts(1, 2, 4));
+		//every meeting except the one of contacts 3 and 6 in 2000 and in 2015
+		assertEquals(6, any.size());
+		for (int i = 1; i < any.size(); i++) {
+			assertEquals(true, any.get(i - 1).getDate().before(any.get(i).getDate()));
+		}
+		assertEquals(cm.getMeetingList(Instant.EPOCH, Instant.parse("3000-01-01T00:00:00Z")),
+				cm.getMeetingsWithAny(cm.getContacts(1, 2, 3, 4, 5, 6)));
+	}
+
+	@Test
+	public void testGetMeetingsWithAllExceptionOnEmptySet() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Contact Set Empty");
+		cm.getMeetingsWithAll(new HashSet<Contact>());
+	}
+
+	// tests for top collaborators
+	@Test
+	public void testGetTopCollaboratorsMostFrequentFirst() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		helpAddMorePastMeetings(cm);
+		helpAddMoreFutureMeetings(cm);
+		Contact anna = cm.getContacts(1).iterator().next();
+		//Anna Jones (4) has met Anna Kingsbury twice, Brian (2) and Cathy (3) once each
+		List<Contact> top = cm.getTopCollaborators(anna, 2);
+		assertEquals(2, top.size());
+		assertEquals(4, top.get(0).getId());
+		assertEquals(2, top.get(1).getId());
+		assertEquals(3, cm.getTopCollaborators(anna, 10).size());
+		assertEquals(0, cm.getTopCollaborators(anna, 0).size());
+	}
+
+	@Test
+	public void testGetTopCollaboratorsKeptUpToDateAndAfterReload() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		Contact cathy = cm.getContacts(6).iterator().next();
+		for (int i = 0; i < 3; i++) {
+			cm.addNewPastMeeting(cm.getContacts(1, 6), new GregorianCalendar(2000, 0, 1 + i), "notes");
+		}
+		assertEquals(1, cm.getTopCollaborators(cathy, 1).get(0).getId());
+		cm.flush();
+		ContactManager reloaded = newCM();
+		assertEquals(cm.getTopCollaborators(cathy, 3), reloaded.getTopCollaborators(cathy, 3));
+	}
+
+	@Test
+	public void testGetTopCollaboratorsExceptionOnNegativeNumber() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Number of contacts may not be negative");
+		cm.getTopCollaborators(cm.getContacts(1).iterator().next(), -1);
+	}
+
+	// tests for aggregation queries
+	@Test
+	public void testCountMeetingsAndNextAndLastMeetingOfContact() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		helpAddMorePastMeetings(cm);
+		helpAddMoreFutureMeetings(cm);
+		Contact anna = cm.getContacts(1).iterator().next();
+		Meeting next = cm.nextMeeting(anna);
+		assertEquals(cm.getFutureMeetingList(anna).get(0), next);
+		assertEquals(cm.getPastMeetingList(anna).get(0), cm.lastMeeting(anna));
+		assertEquals(3, cm.countMeetings(anna, Instant.EPOCH, Instant.parse("3000-01-01T00:00:00Z")));
+		//the end of the period is not included
+		Instant lastTime = cm.lastMeeting(anna).getDate().toInstant();
+		assertEquals(1, cm.countMeetings(anna, lastTime, next.getDate().toInstant()));
+		assertEquals(0, cm.countMeetings(anna, lastTime, lastTime));
+		cm.addNewContact("No Meetings", "");
+		Contact none = cm.getContacts("No Meetings").iterator().next();
+		assertNull(cm.nextMeeting(none));
+		assertNull(cm.lastMeeting(none));
+	}
+
+	@Test
+	public void testDayAndMonthQueriesUseTheZoneCMWasCreatedIn() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		Calendar date = cm.getMeeting(2).getDate();
+		LocalDate day = date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+		YearMonth month = YearMonth.from(day);
+		TimeZone defaultZone = TimeZone.getDefault();
+		try {
+			//a zone where the meeting, just before midday, falls on the next day
+			TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+			assertEquals(1, cm.getFutureMeetingList(day).size());
+			assertEquals(Integer.valueOf(1), cm.countMeetingsByMonth(month, month).get(month));
+		} finally {
+			TimeZone.setDefault(defaultZone);
+		}
+	}
+
+	@Test
+	public void testCountMeetingsByMonthIncludesEmptyMonths() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		helpAddMorePastMeetings(cm);
+		SortedMap<YearMonth, Integer> counts = cm.countMeetingsByMonth(YearMonth.of(2000, 8), YearMonth.of(2000, 10));
+		assertEquals(3, counts.size());
+		assertEquals(Integer.valueOf(0), counts.get(YearMonth.of(2000, 8)));
+		assertEquals(Integer.valueOf(3), counts.get(YearMonth.of(2000, 9)));
+		assertEquals(Integer.valueOf(0), counts.get(YearMonth.of(2000, 10)));
+	}
+
+	@Test
+	public void testCountMeetingsExceptionOnEndBeforeStart() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("End date is before start date");
+		cm.countMeetings(cm.getContacts(1).iterator().next(), Instant.parse("3000-01-01T00:00:00Z"), Instant.EPOCH);
+	}
+
+	// tests for metrics
+	@Test
+	public void testMetricsRecordOperationsOnceEnabled() {
+		ContactManagerImpl cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		ContactManagerMetrics metrics = cm.enableMetrics();
+		assertSame(metrics, cm.enableMetrics());
+		assertEquals(1, metrics.getLatencies(ContactManagerMetrics.Operation.LOAD).getCount());
+		assertEquals(0, metrics.getLatencies(ContactManagerMetrics.Operation.ADD_CONTACT).getCount());
+		helpAddMoreFutureMeetings(cm);
+		Contact anna = cm.getContacts(1).iterator().next();
+		cm.getFutureMeetingList(anna);
+		cm.getFutureMeetingList(anna);
+		cm.flush();
+		ContactManagerMetrics snapshot = metrics.snapshot();
+		cm.getFutureMeetingList(anna);
+		assertEquals(3, snapshot.getLatencies(ContactManagerMetrics.Operation.ADD_FUTURE_MEETING).getCount());
+		assertEquals(2, snapshot.getLatencies(ContactManagerMetrics.Operation.FUTURE_MEETING_LIST).getCount());
+		//Anna has two future meetings: each call reads both, after two steps searching for now
+		assertEquals(8, snapshot.getScanned(ContactManagerMetrics.Operation.FUTURE_MEETING_LIST));
+		assertEquals(1, snapshot.getLatencies(ContactManagerMetrics.Operation.FLUSH).getCount());
+		assertEquals(new File("./cw4/contacts.txt").length() + new File("./cw4/contacts.idx").length(),
+				snapshot.getBytesWritten());
+		assertEquals(3, metrics.getLatencies(ContactManagerMetrics.Operation.FUTURE_MEETING_LIST).getCount());
+	}
+
+	@Test
+	public void testMetricsRecordEveryQuery() {
+		ContactManagerImpl cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		helpAddMorePastMeetings(cm);
+		ContactManagerMetrics metrics = cm.enableMetrics();
+		Contact anna = cm.getContacts(1).iterator().next();
+		cm.getMeeting(1);
+		cm.getPastMeeting(2);
+		cm.getContactsByPrefix("Anna", 10);
+		cm.forEachPastMeeting(anna, meeting -> { });
+		cm.pastMeetings(anna);
+		cm.getPastMeetingPage(anna, null, 10);
+		cm.getMeetingsWithAny(cm.getContacts(1, 2));
+		cm.getTopCollaborators(anna, 3);
+		cm.countMeetings(anna, Instant.EPOCH, Instant.parse("3000-01-01T00:00:00Z"));
+		cm.lastMeeting(anna);
+		cm.countMeetingsByMonth(YearMonth.of(2000, 1), YearMonth.of(2000, 12));
+		for (ContactManagerMetrics.Operation operation: new ContactManagerMetrics.Operation[] {
+				ContactManagerMetrics.Operation.GET_MEETING, ContactManagerMetrics.Operation.GET_CONTACTS_BY_ID,
+				ContactManagerMetrics.Operation.GET_CONTACTS_BY_PREFIX,
+				ContactManagerMetrics.Operation.FOR_EACH_MEETING, ContactManagerMetrics.Operation.MEETING_STREAM,
+				ContactManagerMetrics.Operation.MEETING_PAGE, ContactManagerMetrics.Operation.MEETINGS_WITH_CONTACTS,
+				ContactManagerMetrics.Operation.TOP_COLLABORATORS, ContactManagerMetrics.Operation.COUNT_MEETINGS,
+				ContactManagerMetrics.Operation.MEETINGS_BY_MONTH}) {
+			assertEquals(operation.name(), true, metrics.getLatencies(operation).getCount() > 0);
+		}
+		assertEquals(2, metrics.getLatencies(ContactManagerMetrics.Operation.GET_MEETING).getCount());
+		assertEquals(12, metrics.getScanned(ContactManagerMetrics.Operation.MEETINGS_BY_MONTH));
+		//both "Anna" contacts, then the first name after them
+		assertEquals(3, metrics.getScanned(ContactManagerMetrics.Operation.GET_CONTACTS_BY_PREFIX));
+	}
+
+	@Test
+	public void testMetricsRecordCallsThatThrow() {
+		ContactManagerImpl cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		ContactManagerMetrics metrics = cm.enableMetrics();
+		try {
+			cm.getPastMeeting(1);
+			fail("getPastMeeting should throw for a FutureMeeting");
+		} catch (IllegalArgumentException ex) {
+		}
+		try {
+			cm.addMeetingNotes(1, "notes");
+			fail("addMeetingNotes should throw for a FutureMeeting");
+		} catch (IllegalStateException ex) {
+		}
+		try {
+			cm.getContacts(1, 99);
+			fail("getContacts should throw for an unknown ID");
+		} catch (IllegalArgumentException ex) {
+		}
+		assertEquals(1, metrics.getLatencies(ContactManagerMetrics.Operation.GET_MEETING).getCount());
+		assertEquals(1, metrics.getLatencies(ContactManagerMetrics.Operation.ADD_MEETING_NOTES).getCount());
+		assertEquals(1, metrics.getLatencies(ContactManagerMetrics.Operation.GET_CONTACTS_BY_ID).getCount());
+	}
+
+	@Test
+	public void testMetricsCountMigrations() {
+		ContactManagerImpl cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		helpAddMoreFutureMeetings(cm);
+		ContactManagerMetrics metrics = cm.enableMetrics();
+		setClock(new GregorianCalendar(2015, 8, 14, 0, 0));
+		cm.getPastMeetingList(cm.getContacts(1).iterator().next());
+		assertEquals(3, metrics.getMigrations());
+	}
+
+	@Test
+	public void testLatencyHistogramPercentilesWithinBucketWidth() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 100000; value++) {
+			histogram.record(value * 1000);
+		}
+		assertEquals(100000, histogram.getCount());
+		assertEquals(100000000, histogram.getMax());
+		assertEquals(50000500.0, histogram.getMean(), 0.001);
+		assertEquals(true, Math.abs(histogram.getValueAtPercentile(50) - 50000000) <= 50000000 / 16);
+		assertEquals(true, Math.abs(histogram.getValueAtPercentile(99) - 99000000) <= 99000000 / 16);
+		assertEquals(100000000, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testMetricsReadableOverJmx() throws Exception {
+		ContactManagerImpl cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		ContactManagerMetrics metrics = cm.enableMetrics();
+		ObjectName name = metrics.registerMBean();
+		try {
+			cm.flush();
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(metrics.getBytesWritten(), server.getAttribute(name, "BytesWritten"));
+			String[] summaries = (String[]) server.getAttribute(name, "OperationSummaries");
+			assertEquals(ContactManagerMetrics.Operation.values().length, summaries.length);
+		} finally {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		}
+	}
+
+	@Test
+	public void testFlightRecorderEventsForPersistenceMigrationAndSlowOperations() throws Exception {
+		Recording recording = new Recording();
+		for (String event: new String[] {"contactmanager.Flush", "contactmanager.Load",
+				"contactmanager.Migration", "contactmanager.SlowOperation"}) {
+			recording.enable(event);
+		}
+		ContactManagerEvents.setSlowOperationThreshold(0, TimeUnit.NANOSECONDS);
+		File dump = File.createTempFile("contactmanager", ".jfr");
+		try {
+			recording.start();
+			ContactManagerImpl cm = newCM();
+			helpAddContactsAndMeetings(cm);
+			helpAddMoreFutureMeetings(cm);
+			cm.flush();
+			setClock(new GregorianCalendar(2015, 8, 14, 0, 0));
+			cm.getPastMeetingList(cm.getContacts(1).iterator().next());
+			recording.stop();
+			recording.dump(dump.toPath());
+		} finally {
+			ContactManagerEvents.setSlowOperationThreshold(10, TimeUnit.MILLISECONDS);
+			recording.close();
+		}
+		List<RecordedEvent> events = RecordingFile.readAllEvents(dump.toPath());
+		Files.delete(dump.toPath());
+		Set<String> names = new HashSet<String>();
+		for (RecordedEvent event: events) {
+			String name = event.getEventType().getName();
+			names.add(name);
+			if (name.equals("contactmanager.Flush")) {
+				assertEquals(11, event.getInt("recordsWritten"));
+				assertEquals(new File("./cw4/contacts.txt").length() + new File("./cw4/contacts.idx").length(),
+						event.getLong("bytesWritten"));
+			} else if (name.equals("contactmanager.Migration")) {
+				assertEquals(3, event.getInt("meetingsMigrated"));
+			}
+		}
+		assertEquals(4, names.size());
+	}
+
+	// tests for bulk import
+	@Test
+	public void testBulkImportMatchesSingleAddsAndReloads() {
+		ContactManager single = newCM();
+		helpAddContactsAndMeetings(single);
+		single.flush();
+		new File("./cw4/contacts.txt").delete();
+		ContactManager bulk = newCM();
+		IdRange contactIds = bulk.addNewContacts(Arrays.asList(
+				new NewContact("Anna Kingsbury", "ak notes"), new NewContact("Brian Kingsbury", "bk notes"),
+				new NewContact("Cathy Kingsbury", "ck notes"), new NewContact("Anna Jones", "aj notes"),
+				new NewContact("Brian Jones", "bj notes"), new NewContact("Cathy Jones", "cj notes")));
+		assertEquals(new IdRange(1, 6), contactIds);
+		IdRange meetingIds = bulk.addMeetings(Arrays.asList(
+				new NewMeeting(bulk.getContacts(1, 2, 3), new GregorianCalendar(2015, 8, 14, 11, 2).toInstant()),
+				new NewMeeting(bulk.getContacts(4, 5, 6), new GregorianCalendar(2014, 8, 15, 11, 2).toInstant(),
+						"New Past Meeting Notes")));
+		assertEquals(new IdRange(1, 2), meetingIds);
+		for (int id = 1; id <= 2; id++) {
+			assertEquals(single.getMeeting(id).toString(), bulk.getMeeting(id).toString());
+		}
+		assertEquals(single.getContactsByPrefix("", 10), bulk.getContactsByPrefix("", 10));
+		assertEquals(single.getContacts("Anna"), bulk.getContacts("Anna"));
+		Contact anna = bulk.getContacts(1).iterator().next();
+		assertEquals(single.getFutureMeetingList(anna).toString(), bulk.getFutureMeetingList(anna).toString());
+		bulk.flush();
+		ContactManager reloaded = newCM();
+		assertEquals(bulk.getContactsByPrefix("", 10), reloaded.getContactsByPrefix("", 10));
+		assertEquals(bulk.getMeeting(2).toString(), reloaded.getMeeting(2).toString());
+	}
+
+	@Test
+	public void testBulkImportAddsToExistingDataInDateOrder() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		IdRange contactIds = cm.addNewContacts(Arrays.asList(new NewContact("Zoe Adams", ""),
+				new NewContact("Adam Zane", "az notes")));
+		assertEquals(new IdRange(7, 2), contactIds);
+		assertEquals(8, cm.getContactsByPrefix("A", 10).get(0).getId());
+		assertEquals(7, cm.getContactsByPrefix("Z", 10).get(0).getId());
+		Set<Contact> attending = cm.getContacts(1, 7);
+		IdRange meetingIds = cm.addMeetings(Arrays.asList(
+				new NewMeeting(attending, new GregorianCalendar(2015, 10, 1).toInstant()),
+				new NewMeeting(attending, new GregorianCalendar(2013, 0, 1).toInstant(), "first"),
+				new NewMeeting(attending, new GregorianCalendar(2015, 0, 1).toInstant())));
+		assertEquals(new IdRange(3, 3), meetingIds);
+		assertEquals(true, meetingIds.contains(5));
+		Contact anna = cm.getContacts(1).iterator().next();
+		List<Meeting> future = cm.getFutureMeetingList(anna);
+		assertEquals(Arrays.asList(5, 1, 3),
+				future.stream().map(Meeting::getId).collect(Collectors.toList()));
+		assertEquals("first", cm.getPastMeetingList(anna).get(0).getNotes());
+		assertEquals(new IdRange(6, 0), cm.addMeetings(new ArrayList<NewMeeting>()));
+	}
+
+	@Test
+	public void testBulkImportAddsNothingIfAnyMeetingIsRejected() {
+		ContactManager cm = newCM();
+		helpAddContactsAndMeetings(cm);
+		Set<Contact> attending = cm.getContacts(1, 2);
+		Instant existing = new GregorianCalendar(2015, 8, 14, 11, 2).toInstant();
+		Instant free = new GregorianCalendar(2015, 8, 20).toInstant();
+		//a contact with the ID of one CM holds, but not the same contact
+		Set<Contact> stranger = new HashSet<Contact>();
+		stranger.add(new ContactImpl(3, "Someone Else", ""));
+		List<List<NewMeeting>> rejected = Arrays.asList(
+				Arrays.asList(new NewMeeting(attending, free), new NewMeeting(attending, existing)),
+				Arrays.asList(new NewMeeting(attending, free), new NewMeeting(attending, free)),
+				Arrays.asList(new NewMeeting(attending, free), new NewMeeting(attending, free, "in the future")),
+				Arrays.asList(new NewMeeting(attending, free), new NewMeeting(stranger, existing.plusSeconds(60))));
+		String[] messages = {"Meeting already exists at that date/time", "Meeting already exists at that date/time",
+				"Date may not be in future", "Contact unknown"};
+		for (int i = 0; i < rejected.size(); i++) {
+			try {
+				cm.addMeetings(rejected.get(i));
+				fail("Batch " + i + " was not rejected");
+			} catch (IllegalArgumentException ex) {
+				assertEquals(messages[i], ex.getMessage());
+			}
+			assertNull(cm.getMeeting(3));
+		}
+		assertEquals(new IdRange(3, 1), cm.addMeetings(Arrays.asList(new NewMeeting(attending, free))));
+	}
+
+	// tests for ContactManagerDataGenerator
+	@Test
+	public void testGeneratedTextAndBinaryFilesLoadTheSameData() throws IOException {
+		ContactManagerDataGenerator generator = new ContactManagerDataGenerator(30, 200, 7);
+		generator.setPastFraction(0.75);
+		generator.setReferenceTime(System.currentTimeMillis() + clockAdjustment);
+		generator.setAttendeeSizes(new int[] {2, 5}, new int[] {1, 1});
+		generator.writeText(new File("./cw4/contacts.txt"));
+		generator.writeBinary(new File("./cw4/contacts.bin"));
+		ContactManager fromText = newCM();
+		ContactManager fromBinary = newCM(PersistenceMode.BINARY_SNAPSHOT);
+		int[] contactIds = new int[30];
+		for (int i = 0; i < contactIds.length; i++) {
+			contactIds[i] = i + 1;
+		}
+		assertEquals(30, fromText.getContacts(contactIds).size());
+		assertNull(fromText.getMeeting(201));
+		assertEquals(true, fromText.getMeeting(150) instanceof PastMeeting);
+		assertEquals(true, fromText.getMeeting(151) instanceof FutureMeeting);
+		for (int id = 1; id <= 200; id++) {
+			assertEquals(fromText.getMeeting(id).toString(), fromBinary.getMeeting(id).toString());
+		}
+		assertEquals(fromText.getContacts(30).toString(), fromBinary.getContacts(30).toString());
+	}
+
+	// tests for ConcurrentContactManagerImpl
+	@Test
+	public void testConcurrentWritersLoseNoIdsAndAddNoDuplicateMeetings() throws Exception {
+		final ContactManager cm = new ConcurrentContactManagerImpl();
+		cm.addNewContact("Shared Contact", "");
+		final Set<Contact> shared = cm.getContacts(1);
+		final Contact sharedContact = shared.iterator().next();
+		final int threads = 8;
+		final int perThread = 100;
+		final long start = System.currentTimeMillis();
+		final long soon = start + 2000;
+		final AtomicBoolean writing = new AtomicBoolean(true);
+		ExecutorService pool = Executors.newFixedThreadPool(threads * 2);
+		List<Future<List<Integer>>> writers = new ArrayList<Future<List<Integer>>>();
+		List<Future<?>> readers = new ArrayList<Future<?>>();
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			writers.add(pool.submit(() -> {
+				List<Integer> ids = new ArrayList<Integer>();
+				//the first half of the future meetings fall due while the readers are running
+				for (int i = 0; i < perThread; i++) {
+					int slot = thread * perThread + i;
+					long date = (i < perThread / 2) ? soon + slot : start + 86400000L + slot;
+					ids.add(cm.addFutureMeeting(shared, Instant.ofEpochMilli(date)));
+					cm.addNewContact("Writer " + thread + " " + i, "");
+					cm.addNewPastMeeting(shared, Instant.ofEpochMilli(start - 1 - slot), "notes");
+				}
+				return ids;
+			}));
+			readers.add(pool.submit(() -> {
+				while (writing.get()) {
+					for (PastMeeting meeting: cm.getPastMeetingList(sharedContact)) {
+						meeting.getNotes();
+					}
+					for (Meeting meeting: cm.getFutureMeetingList(sharedContact)) {
+						cm.getMeeting(meeting.getId()).getDate();
+					}
+				}
+				return null;
+			}));
+		}
+		Set<Integer> futureIds = new HashSet<Integer>();
+		for (Future<List<Integer>> writer: writers) {
+			futureIds.addAll(writer.get());
+		}
+		while (System.currentTimeMillis() <= soon + threads * perThread) {
+			Thread.sleep(50);
+		}
+		writing.set(false);
+		for (Future<?> reader: readers) {
+			reader.get();
+		}
+		pool.shutdown();
+		assertEquals(threads * perThread, futureIds.size());
+		for (int id = 1; id <= threads * perThread * 2; id++) {
+			assertEquals(id, cm.getMeeting(id).getId());
+		}
+		assertNull(cm.getMeeting(threads * perThread * 2 + 1));
+		int[] contactIds = new int[threads * perThread + 1];
+		for (int i = 0; i < contactIds.length; i++) {
+			contactIds[i] = i + 1;
+		}
+		assertEquals(contactIds.length, cm.getContacts(contactIds).size());
+		assertEquals(threads * perThread * 3 / 2, cm.getPastMeetingList(sharedContact).size());
+		assertEquals(threads * perThread / 2, cm.getFutureMeetingList(sharedContact).size());
+	}
+
+	@Test
+	public void testConcurrentStreamsWalkInChunksAndCarryOnPastChanges() {
+		ConcurrentContactManagerImpl cm = newConcurrentCM();
+		helpAddContactsAndMeetings(cm);
+		Contact anna = cm.getContacts(1).iterator().next();
+		for (int i = 0; i < 150; i++) {
+			cm.addFutureMeeting(cm.getContacts(1), new GregorianCalendar(2016, 0, 1, 0, i));
+		}
+		Iterator<Meeting> walk = cm.futureMeetings(anna).iterator();
+		List<Meeting> seen = new ArrayList<Meeting>();
+		while (walk.hasNext()) {
+			seen.add(walk.next());
+			if (seen.size() == 30) {
+				//after the chunk being walked, so seen; unlike ContactManagerImpl's streams, no failure
+				cm.addFutureMeeting(cm.getContacts(1), new GregorianCalendar(2017, 0, 1));
+			}
+		}
+		assertEquals(152, seen.size());
+		assertEquals(cm.getFutureMeetingList(anna).toString(), seen.toString());
+		assertEquals(1, cm.futureMeetings(anna).filter(m -> m.getId() == 1).count());
+		Contact annaJones = cm.getContacts(4).iterator().next();
+		List<PastMeeting> past = new ArrayList<PastMeeting>();
+		cm.forEachPastMeeting(annaJones, past::add);
+		assertEquals(cm.getPastMeetingList(annaJones), past);
+		Calendar from = new GregorianCalendar(2016, 0, 1, 1, 0);
+		Calendar to = new GregorianCalendar(2017, 0, 1);
+		assertEquals(cm.getMeetingList(from, to).stream().filter(m -> m.getDate().before(to)).collect(Collectors.toList()),
+				cm.meetings(from.toInstant(), to.toInstant()).collect(Collectors.toList()));
+		ContactManagerMetrics metrics = cm.enableMetrics();
+		cm.getMeeting(1);
+		cm.getContacts(1, 2);
+		assertEquals(1, metrics.getLatencies(ContactManagerMetrics.Operation.GET_MEETING).getCount());
+		assertEquals(1, metrics.getLatencies(ContactManagerMetrics.Operation.GET_CONTACTS_BY_ID).getCount());
+	}
+
+	@Test
+	public void testBackgroundMigrationMigratesWithoutAQuery() throws InterruptedException {
+		ConcurrentContactManagerImpl cm = newConcurrentCM();
+		helpAddContactsAndMeetings(cm);
+		cm.startBackgroundMigration();
+		int meetingId = cm.addFutureMeeting(cm.getContacts(1, 2),
+				Instant.ofEpochMilli(System.currentTimeMillis() + clockAdjustment + 300));
+		//getMeeting does not migrate, so only the background thread can have made it past
+		for (int wait = 0; wait < 50 && !(cm.getMeeting(meetingId) instanceof PastMeeting); wait++) {
+			Thread.sleep(100);
+		}
+		cm.stopBackgroundMigration();
+		assertEquals(true, cm.getMeeting(meetingId) instanceof PastMeeting);
+		assertEquals(true, cm.getMeeting(1) instanceof FutureMeeting);
+	}
 }
@@ -18,6 +18,27 @@ public class FutureMeetingImpl extends MeetingImpl implements FutureMeeting {
 		super(meetingId, meetingContacts, scheduledDate);
 	}
 	
+	/**
+	 * This constructor uses the constructor of the abstract class MeetingImpl.
+	 * @param meetingId the meeting's ID (generated by ContactManager)
+	 * @param meetingContacts the contacts taking part in the meeting
+	 * @param timeInMillis the date of the meeting in milliseconds since the epoch
+	 */
+	public FutureMeetingImpl(int meetingId, Set<Contact> meetingContacts, long timeInMillis) {
+		super(meetingId, meetingContacts, timeInMillis);
+	}
+	
+	/**
+	 * This constructor uses the constructor of the abstract class MeetingImpl.
+	 * @param meetingId the meeting's ID (generated by ContactManager)
+	 * @param contactIds the IDs of the contacts taking part, in ascending order
+	 * @param timeInMillis the date of the meeting in milliseconds since the epoch
+	 * @param contactLookup finds the contacts by ID
+	 */
+	public FutureMeetingImpl(int meetingId, int[] contactIds, long timeInMillis, ContactLookup contactLookup) {
+		super(meetingId, contactIds, timeInMillis, contactLookup);
+	}
+	
 	// No methods here, this is just a naming interface
 	// (i.e. only necessary for type checking and/or downcasting)
 }
@@ -0,0 +1,122 @@
+import java.util.Arrays;
+
+/**
+ * A set of contact or meeting IDs held in ascending order in a primitive array, used as the
+ * posting lists of ContactManager's search indexes.  IDs are usually added in ascending order,
+ * so adding is normally an append.
+ *
+ * @author markkingsbury
+ */
+
+public class IdList {
+
+	private static final int INITIAL_CAPACITY = 2;
+
+	private int[] ids;
+	private int size;
+
+	/**
+	 * Creates an empty list.
+	 */
+	public IdList() {
+		this.ids = new int[INITIAL_CAPACITY];
+		this.size = 0;
+	}
+
+	/**
+	 * Adds an ID, keeping the list in order.
+	 * @param id the ID
+	 * @return true if the ID was added, false if it was already in the list
+	 */
+	public boolean add(int id) {
+		if (size > 0 && ids[size - 1] >= id) {
+			int index = Arrays.binarySearch(ids, 0, size, id);
+			if (index >= 0) {
+				return false;
+			}
+			insert(-index - 1, id);
+		} else {
+			insert(size, id);
+		}
+		return true;
+	}
+
+	/**
+	 * Removes an ID.
+	 * @param id the ID
+	 * @return true if the ID was removed, false if it was not in the list
+	 */
+	public boolean remove(int id) {
+		int index = Arrays.binarySearch(ids, 0, size, id);
+		if (index < 0) {
+			return false;
+		}
+		System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+		size--;
+		return true;
+	}
+
+	/**
+	 * @return the number of IDs in the list
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the IDs in ascending order, in a new array
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(ids, size);
+	}
+
+	/**
+	 * Finds the IDs that are in every one of the lists given.  The shortest list is taken
+	 * first, and each of its IDs is then searched for in the others.
+	 * @param lists the lists, which are reordered
+	 * @return the IDs in every list, in ascending order
+	 */
+	public static int[] intersect(IdList[] lists) {
+		if (lists.length == 0) {
+			return new int[0];
+		}
+		Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+		int[] result = lists[0].toArray();
+		int size = result.length;
+		for (int i = 1; i < lists.length && size > 0; i++) {
+			size = lists[i].retainIn(result, size);
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * Keeps only the IDs that are also in this list.  Both are in ascending order, so each ID
+	 * is searched for from where the last one was found.
+	 * @param others the IDs, changed in place
+	 * @param count the number of IDs
+	 * @return the number of IDs kept
+	 */
+	private int retainIn(int[] others, int count) {
+		int kept = 0;
+		int from = 0;
+		for (int i = 0; i < count; i++) {
+			int found = Arrays.binarySearch(ids, from, size, others[i]);
+			if (found >= 0) {
+				others[kept++] = others[i];
+				from = found + 1;
+			} else {
+				from = -found - 1;
+			}
+		}
+		return kept;
+	}
+
+	private void insert(int index, int id) {
+		if (size == ids.length) {
+			ids = Arrays.copyOf(ids, Math.max(INITIAL_CAPACITY, size * 2));
+		}
+		System.arraycopy(ids, index, ids, index + 1, size - index);
+		ids[index] = id;
+		size++;
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * A run of consecutive contact or meeting IDs, as allocated by ContactManager's bulk import
+ * methods: the n-th record imported has the ID getFirst() + n.
+ *
+ * @author markkingsbury
+ */
+
+public class IdRange {
+
+	private int first;
+	private int size;
+
+	/**
+	 * Constructor for a range of IDs.
+	 * @param first the first ID
+	 * @param size the number of IDs, which may be zero
+	 */
+	public IdRange(int first, int size) {
+		this.first = first;
+		this.size = size;
+	}
+
+	/**
+	 * @return the first ID in the range
+	 */
+	public int getFirst() {
+		return first;
+	}
+
+	/**
+	 * @return the last ID in the range, or getFirst() - 1 if the range is empty
+	 */
+	public int getLast() {
+		return first + size - 1;
+	}
+
+	/**
+	 * @return the number of IDs in the range
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param id an ID
+	 * @return true if the ID is in the range
+	 */
+	public boolean contains(int id) {
+		return id >= first && id - first < size;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof IdRange)) {
+			return false;
+		}
+		IdRange range = (IdRange) other;
+		return first == range.first && size == range.size;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * first + size;
+	}
+
+	@Override
+	public String toString() {
+		return "IdRange[" + first + ".." + getLast() + "]";
+	}
+}
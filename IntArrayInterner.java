@@ -0,0 +1,86 @@
+import java.util.Arrays;
+
+/**
+ * Keeps one shared copy of each distinct int array, used by ContactManager so that meetings
+ * with the same contacts attending share one array of contact IDs.  Arrays given to intern()
+ * may be kept and handed out again, so must not be changed afterwards.
+ * Uses open addressing with linear probing, like IntObjectMap; arrays are never removed.
+ *
+ * @author markkingsbury
+ */
+
+public class IntArrayInterner {
+
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private int[][] table;
+	private int size;
+	private int resizeThreshold;
+	private int mask;
+
+	/**
+	 * Creates an empty interner.
+	 */
+	public IntArrayInterner() {
+		allocate(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Returns the shared array with the same contents as the array given, which becomes the
+	 * shared array if there is none yet.
+	 * @param array the array
+	 * @return the shared array equal to it
+	 */
+	public int[] intern(int[] array) {
+		int i = hash(array) & mask;
+		for (; table[i] != null; i = (i + 1) & mask) {
+			if (Arrays.equals(table[i], array)) {
+				return table[i];
+			}
+		}
+		table[i] = array;
+		if (++size > resizeThreshold) {
+			rehash(table.length << 1);
+		}
+		return array;
+	}
+
+	/**
+	 * @return the number of distinct arrays held
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void rehash(int capacity) {
+		int[][] oldTable = table;
+		allocate(capacity);
+		for (int[] array: oldTable) {
+			if (array != null) {
+				int i = hash(array) & mask;
+				while (table[i] != null) {
+					i = (i + 1) & mask;
+				}
+				table[i] = array;
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		table = new int[capacity][];
+		mask = capacity - 1;
+		resizeThreshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	/**
+	 * Spreads the hash of the array's contents, as the hashes of small sets of
+	 * sequential IDs differ only in their low bits.
+	 * @param array the array
+	 * @return the mixed hash
+	 */
+	private static int hash(int[] array) {
+		int h = Arrays.hashCode(array) * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
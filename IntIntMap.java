@@ -0,0 +1,124 @@
+/**
+ * A hash map of counts from primitive int keys to primitive int values, used by ContactManager
+ * to count how often each pair of contacts has met without boxing keys or values.
+ * Uses open addressing with linear probing, like IntObjectMap.  A key with a count of zero is
+ * not held, so the map only grows as counts are added and entries are never removed.
+ *
+ * @author markkingsbury
+ */
+
+public class IntIntMap {
+
+	private static final int DEFAULT_CAPACITY = 4;
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private int[] keys;
+	private int[] values;
+	private int size;
+	private int resizeThreshold;
+	private int mask;
+
+	/**
+	 * Called with each entry of the map by forEach().
+	 */
+	public interface EntryVisitor {
+		/**
+		 * @param key the key
+		 * @param value the count held for it
+		 */
+		void visit(int key, int value);
+	}
+
+	/**
+	 * Creates an empty map.
+	 */
+	public IntIntMap() {
+		allocate(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Returns the count held for the key.
+	 * @param key the key to look up
+	 * @return the count, or zero if there is none
+	 */
+	public int get(int key) {
+		for (int i = mix(key) & mask; values[i] != 0; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return values[i];
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Adds one to the count held for the key.
+	 * @param key the key
+	 * @return the new count
+	 */
+	public int increment(int key) {
+		int i = mix(key) & mask;
+		for (; values[i] != 0; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return ++values[i];
+			}
+		}
+		keys[i] = key;
+		values[i] = 1;
+		if (++size > resizeThreshold) {
+			rehash(keys.length << 1);
+		}
+		return 1;
+	}
+
+	/**
+	 * @return the number of keys with a count
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Calls the visitor with each key and its count, in no particular order.
+	 * @param visitor the visitor
+	 */
+	public void forEach(EntryVisitor visitor) {
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] != 0) {
+				visitor.visit(keys[i], values[i]);
+			}
+		}
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != 0) {
+				int j = mix(oldKeys[i]) & mask;
+				while (values[j] != 0) {
+					j = (j + 1) & mask;
+				}
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		resizeThreshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	/**
+	 * Spreads sequential IDs across the table, as in IntObjectMap.
+	 * @param key the key
+	 * @return the mixed hash
+	 */
+	private static int mix(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,208 @@
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive int keys to objects, used by ContactManager to index
+ * records by ID without boxing the keys.
+ * Uses open addressing with linear probing; removal shifts later entries back so
+ * that no tombstones are left in the table.
+ *
+ * The keys and values are held together in one table object, replaced whole when the
+ * map grows, and get() reads it once.  A reader racing a writer (as in
+ * ConcurrentContactManagerImpl's optimistic reads, which are checked afterwards) therefore
+ * always probes one table's keys and values, never the keys of one and the values of another.
+ *
+ * @author markkingsbury
+ * @param <V> the type of the values held in the map
+ */
+
+public class IntObjectMap<V> {
+
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private Table table;
+	private int size;
+
+	/**
+	 * The slots of the map.  The arrays are filled before the table is published, in its
+	 * constructor, so a table seen through the map's field is seen complete.
+	 */
+	private static final class Table {
+
+		private final int[] keys;
+		private final Object[] values;
+		private final int mask;
+		private final int resizeThreshold;
+
+		/**
+		 * @param capacity the number of slots, a power of two
+		 * @param from a table whose entries are copied, or null for an empty table
+		 */
+		private Table(int capacity, Table from) {
+			this.keys = new int[capacity];
+			this.values = new Object[capacity];
+			this.mask = capacity - 1;
+			this.resizeThreshold = (int) (capacity * LOAD_FACTOR);
+			if (from != null) {
+				for (int i = 0; i < from.keys.length; i++) {
+					if (from.values[i] != null) {
+						int j = mix(from.keys[i]) & mask;
+						while (values[j] != null) {
+							j = (j + 1) & mask;
+						}
+						keys[j] = from.keys[i];
+						values[j] = from.values[i];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates an empty map with the default capacity.
+	 */
+	public IntObjectMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty map able to hold the expected number of entries without resizing.
+	 * @param expectedSize the number of entries expected
+	 */
+	public IntObjectMap(int expectedSize) {
+		this.table = new Table(capacityFor(expectedSize), null);
+	}
+
+	/**
+	 * Returns the value mapped to the key.
+	 * @param key the key to look up
+	 * @return the value, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		Table t = table;
+		for (int i = mix(key) & t.mask; t.values[i] != null; i = (i + 1) & t.mask) {
+			if (t.keys[i] == key) {
+				return (V) t.values[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Maps the key to the value, replacing any existing mapping.
+	 * @param key the key
+	 * @param value the value, may not be null
+	 * @return the previous value, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException("Value may not be null");
+		}
+		Table t = table;
+		int i = mix(key) & t.mask;
+		for (; t.values[i] != null; i = (i + 1) & t.mask) {
+			if (t.keys[i] == key) {
+				V previous = (V) t.values[i];
+				t.values[i] = value;
+				return previous;
+			}
+		}
+		t.keys[i] = key;
+		t.values[i] = value;
+		if (++size > t.resizeThreshold) {
+			table = new Table(t.keys.length << 1, t);
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the mapping for the key.
+	 * @param key the key
+	 * @return the value that was removed, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		Table t = table;
+		int i = mix(key) & t.mask;
+		for (; t.values[i] != null; i = (i + 1) & t.mask) {
+			if (t.keys[i] == key) {
+				V previous = (V) t.values[i];
+				shiftBack(t, i);
+				size--;
+				return previous;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Grows the table, if needed, so that it can hold the number of entries given without
+	 * resizing again.
+	 * @param expectedSize the number of entries expected
+	 */
+	public void ensureCapacity(int expectedSize) {
+		int capacity = capacityFor(expectedSize);
+		if (capacity > table.keys.length) {
+			table = new Table(capacity, table);
+		}
+	}
+
+	/**
+	 * @return the number of entries in the map
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all entries from the map, keeping its capacity.
+	 */
+	public void clear() {
+		table = new Table(table.keys.length, null);
+		size = 0;
+	}
+
+	/**
+	 * Closes the gap left at a removed slot by moving back any later entry in the
+	 * probe sequence whose home slot is not between the gap and its current slot.
+	 * @param t the table
+	 * @param gap the slot that has been emptied
+	 */
+	private static void shiftBack(Table t, int gap) {
+		int i = gap;
+		while (true) {
+			i = (i + 1) & t.mask;
+			if (t.values[i] == null) {
+				break;
+			}
+			int home = mix(t.keys[i]) & t.mask;
+			if (((i - home) & t.mask) >= ((i - gap) & t.mask)) {
+				t.keys[gap] = t.keys[i];
+				t.values[gap] = t.values[i];
+				gap = i;
+			}
+		}
+		t.values[gap] = null;
+	}
+
+	/**
+	 * @param expectedSize a number of entries
+	 * @return the smallest table size (a power of two) that holds them below the load factor
+	 */
+	private static int capacityFor(int expectedSize) {
+		return Integer.highestOneBit(Math.max(DEFAULT_CAPACITY, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+	}
+
+	/**
+	 * Spreads sequential IDs across the table so that runs of keys do not form
+	 * long probe chains.
+	 * @param key the key
+	 * @return the mixed hash
+	 */
+	private static int mix(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
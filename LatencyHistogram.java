@@ -0,0 +1,133 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds, used by ContactManagerMetrics.  Values are counted
+ * in buckets whose width grows with the value: each power of two is split into 16 buckets, so
+ * a percentile is reported to within about 6% of the true value whatever its size, and the
+ * histogram has a fixed size however many values are recorded.
+ * Recording is lock-free (one atomic increment of a bucket), so any number of threads may
+ * record at once.
+ *
+ * @author markkingsbury
+ */
+
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private AtomicLongArray counts;
+	private LongAdder total;
+	private LongAccumulator max;
+
+	/**
+	 * Creates an empty histogram.
+	 */
+	public LatencyHistogram() {
+		this.counts = new AtomicLongArray(BUCKETS);
+		this.total = new LongAdder();
+		this.max = new LongAccumulator(Math::max, 0);
+	}
+
+	/**
+	 * Records one value.
+	 * @param nanos the latency in nanoseconds; negative values are recorded as zero
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(bucketOf(value));
+		total.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * @return the number of values recorded
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * @return the largest value recorded, or zero if there are none
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the mean of the values recorded, or zero if there are none
+	 */
+	public double getMean() {
+		long count = getCount();
+		return (count == 0) ? 0 : (double) total.sum() / count;
+	}
+
+	/**
+	 * Returns the value that the percentage of values given are at or below.
+	 * @param percentile from 0 to 100
+	 * @return the upper bound of the bucket holding that value (no more than the largest value
+	 * recorded), or zero if there are no values
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = getCount();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * @return a copy of the histogram as it is now, which later values do not change
+	 */
+	public LatencyHistogram copy() {
+		LatencyHistogram copy = new LatencyHistogram();
+		for (int i = 0; i < BUCKETS; i++) {
+			copy.counts.set(i, counts.get(i));
+		}
+		copy.total.add(total.sum());
+		copy.max.accumulate(max.get());
+		return copy;
+	}
+
+	/**
+	 * Values below 16 each have a bucket; above that, a value's bucket is found from the
+	 * position of its highest bit and the four bits below it.
+	 * @param value a value, not negative
+	 * @return the index of its bucket
+	 */
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * @param bucket the index of a bucket
+	 * @return the largest value counted in it
+	 */
+	private static long upperBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long top = bucket % SUB_BUCKETS + SUB_BUCKETS;
+		return ((top + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,44 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A PastMeeting loaded from a binary data file mapped into memory.  Its notes are left in
+ * the mapped file until they are first asked for, then kept, so loading a data file does not
+ * need to decode every meeting's notes or hold them on the heap.
+ *
+ * @author markkingsbury
+ */
+
+public class MappedPastMeetingImpl extends PastMeetingImpl {
+
+	private ByteBuffer dataFile;
+	private int notesPosition;
+	//the notes once decoded; a String can be shared safely, so threads racing to decode
+	//the notes at most decode them more than once
+	private String notes;
+
+	/**
+	 * This constructor uses the constructor of PastMeetingImpl, without notes.
+	 * @param meetingId the meeting's ID (generated by ContactManager)
+	 * @param contactIds the IDs of the contacts attending, in ascending order
+	 * @param timeInMillis the date of the meeting in milliseconds since the epoch
+	 * @param contactLookup finds the contacts by ID
+	 * @param dataFile the mapped data file
+	 * @param notesPosition where the meeting's notes start in the data file
+	 */
+	public MappedPastMeetingImpl(int meetingId, int[] contactIds, long timeInMillis,
+			ContactLookup contactLookup, ByteBuffer dataFile, int notesPosition) {
+		super(meetingId, contactIds, timeInMillis, contactLookup, null);
+		this.dataFile = dataFile;
+		this.notesPosition = notesPosition;
+	}
+
+	@Override
+	public String getNotes() {
+		String decoded = notes;
+		if (decoded == null) {
+			decoded = BinarySnapshotReader.readStringAt(dataFile, notesPosition);
+			notes = decoded;
+		}
+		return decoded;
+	}
+}
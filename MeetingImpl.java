@@ -1,19 +1,40 @@
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
 import java.util.Set;
 
 /**
  * An abstract class implementing Meeting. Unique IDs are created by Contact Manager.
  * 
+ * The contacts attending are held as their IDs, in ascending order in an int array, and
+ * are only looked up (through a ContactLookup, normally the ContactManager holding the
+ * meeting) when getContacts() is called.
+ * 
  * @author markkingsbury
  */
 
 public abstract class MeetingImpl implements Meeting, Comparable<Meeting> {
 
 	private static final String CSV_SPLIT_STRING = "\",\"";
+	private static final int[] NO_CONTACTS = new int[0];
 	
 	private int meetingId;
-	private Calendar date;
-	private Set<Contact> meetingContacts;
+	private long timeInMillis;
+	private int[] contactIds;
+	private ContactLookup contactLookup;
+	
+	/**
+	 * Finds a contact by ID, for a meeting that holds only the IDs of its contacts.
+	 */
+	public interface ContactLookup {
+		
+		/**
+		 * @param id the ID of a contact attending the meeting
+		 * @return the contact
+		 */
+		Contact lookupContact(int id);
+	}
 	
 	/**
 	 * Constructor in Abstract Class deals with ID, Contacts and Date for all types of meeting.
@@ -25,9 +46,49 @@ public abstract class MeetingImpl implements Meeting, Comparable<Meeting> {
 	 * @param scheduledDate the date of the meeting
 	 */
 	public MeetingImpl(int meetingId, Set<Contact> meetingContacts, Calendar scheduledDate) {
-		this.meetingContacts = meetingContacts;
-		this.date = scheduledDate;
+		this(meetingId, meetingContacts, scheduledDate.getTimeInMillis());
+	}
+	
+	/**
+	 * Constructor taking the date as milliseconds since the epoch, which is how the date
+	 * is held by the meeting.
+	 * 
+	 * @param meetingId the meeting's ID (generated by ContactManager)
+	 * @param meetingContacts the contacts that attend the meeting
+	 * @param timeInMillis the date of the meeting in milliseconds since the epoch
+	 */
+	public MeetingImpl(int meetingId, Set<Contact> meetingContacts, long timeInMillis) {
+		this.meetingId = meetingId;
+		this.timeInMillis = timeInMillis;
+		if (meetingContacts == null) {
+			this.contactIds = NO_CONTACTS;
+		} else {
+			//keep the contacts in an array ordered by ID, which can be searched like contactIds
+			Contact[] attending = meetingContacts.toArray(new Contact[meetingContacts.size()]);
+			Arrays.sort(attending, (a, b) -> Integer.compare(a.getId(), b.getId()));
+			this.contactIds = new int[attending.length];
+			for (int i = 0; i < attending.length; i++) {
+				contactIds[i] = attending[i].getId();
+			}
+			this.contactLookup = id -> attending[Arrays.binarySearch(contactIds, id)];
+		}
+	}
+	
+	/**
+	 * Constructor taking the contacts attending as their IDs, for meetings held by a
+	 * ContactManager.
+	 * 
+	 * @param meetingId the meeting's ID (generated by ContactManager)
+	 * @param contactIds the IDs of the contacts that attend the meeting, in ascending order;
+	 *	the array is kept by the meeting, so must not be changed afterwards
+	 * @param timeInMillis the date of the meeting in milliseconds since the epoch
+	 * @param contactLookup finds the contacts by ID when they are asked for
+	 */
+	public MeetingImpl(int meetingId, int[] contactIds, long timeInMillis, ContactLookup contactLookup) {
 		this.meetingId = meetingId;
+		this.timeInMillis = timeInMillis;
+		this.contactIds = contactIds;
+		this.contactLookup = contactLookup;
 	}
 	
 	@Override
@@ -35,14 +96,50 @@ public abstract class MeetingImpl implements Meeting, Comparable<Meeting> {
 		return meetingId;
 	}
 
+	/**
+	 * The date is held as milliseconds since the epoch, so a new Calendar (in the default
+	 * time zone) is made for each call.
+	 */
 	@Override
 	public Calendar getDate() {
+		Calendar date = new GregorianCalendar();
+		date.setTimeInMillis(timeInMillis);
 		return date;
 	}
+	
+	/**
+	 * @return the date of the meeting in milliseconds since the epoch
+	 */
+	public long getTimeInMillis() {
+		return timeInMillis;
+	}
 
+	/**
+	 * The contacts are looked up by ID, so a new set is made for each call.
+	 */
 	@Override
 	public Set<Contact> getContacts() {
-		return meetingContacts;
+		Set<Contact> result = new HashSet<Contact>();
+		for (int id: contactIds) {
+			result.add(contactLookup.lookupContact(id));
+		}
+		return result;
+	}
+	
+	/**
+	 * @return the IDs of the contacts attending, in ascending order; the array is the one
+	 *	held by the meeting, so must not be changed
+	 */
+	public int[] getContactIds() {
+		return contactIds;
+	}
+	
+	/**
+	 * @param contactId the ID of a contact
+	 * @return true if the contact attends the meeting
+	 */
+	public boolean hasContact(int contactId) {
+		return Arrays.binarySearch(contactIds, contactId) >= 0;
 	}
 
 	/**
@@ -50,13 +147,9 @@ public abstract class MeetingImpl implements Meeting, Comparable<Meeting> {
 	 */	
 	@Override
 	public int compareTo(Meeting other) {
-		if(this.getDate().equals(other.getDate())) {
-			return 0;
-		}
-		if (this.date.before(other.getDate())) {
-			return -1;
-		}
-		return 1;
+		long otherTime = (other instanceof MeetingImpl) ? ((MeetingImpl) other).timeInMillis
+				: other.getDate().getTimeInMillis();
+		return Long.compare(this.timeInMillis, otherTime);
 	}
 	
 	/**
@@ -64,6 +157,7 @@ public abstract class MeetingImpl implements Meeting, Comparable<Meeting> {
 	 */
 	@Override
 	public String toString() {
+		Calendar date = getDate();
 		String dateStr = date.get(Calendar.YEAR) + CSV_SPLIT_STRING
 				+ date.get(Calendar.MONTH) + CSV_SPLIT_STRING
 				+ date.get(Calendar.DAY_OF_MONTH) + CSV_SPLIT_STRING
@@ -76,8 +170,8 @@ public abstract class MeetingImpl implements Meeting, Comparable<Meeting> {
 		} else {
 			result += "" + CSV_SPLIT_STRING;
 		}
-		for (Contact contact: this.getContacts()) {
-			result += contact.getId() + CSV_SPLIT_STRING;
+		for (int contactId: contactIds) {
+			result += contactId + CSV_SPLIT_STRING;
 		}
 		return result;
 	}
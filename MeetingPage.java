@@ -0,0 +1,46 @@
+import java.util.List;
+
+/**
+ * One page of meetings returned by a paginated ContactManager query, with the cursor to
+ * pass back to that query for the next page.
+ *
+ * @author markkingsbury
+ * @param <T> the type of meeting on the page
+ */
+
+public class MeetingPage<T extends Meeting> {
+
+	private List<T> meetings;
+	private String nextCursor;
+
+	/**
+	 * Constructor for a page of meetings.
+	 * @param meetings the meetings on the page, in chronological order
+	 * @param nextCursor the cursor for the next page, or null if this is the last page
+	 */
+	public MeetingPage(List<T> meetings, String nextCursor) {
+		this.meetings = meetings;
+		this.nextCursor = nextCursor;
+	}
+
+	/**
+	 * @return the meetings on the page, in chronological order
+	 */
+	public List<T> getMeetings() {
+		return meetings;
+	}
+
+	/**
+	 * @return the cursor to ask for the next page with, or null if there are no more meetings
+	 */
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	/**
+	 * @return true if there are more meetings after this page
+	 */
+	public boolean hasNextPage() {
+		return nextCursor != null;
+	}
+}
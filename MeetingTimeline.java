@@ -0,0 +1,269 @@
+import java.util.Arrays;
+
+/**
+ * The meetings attended by one contact, held in chronological order.
+ * Each entry is the meeting's date (in milliseconds since the epoch) and its ID, kept in two
+ * parallel primitive arrays so that a contact's meetings before or after a given time can be
+ * found by binary search.  Meeting dates are unique within ContactManager so the date alone
+ * orders the entries.
+ *
+ * @author markkingsbury
+ */
+
+public class MeetingTimeline {
+
+	private static final int INITIAL_CAPACITY = 4;
+	private static final long[] NO_TIMES = new long[0];
+	private static final int[] NO_IDS = new int[0];
+
+	private long[] times;
+	private int[] meetingIds;
+	private int size;
+
+	/**
+	 * Creates an empty timeline.  Storage is only allocated when the first meeting is added.
+	 */
+	public MeetingTimeline() {
+		this.times = NO_TIMES;
+		this.meetingIds = NO_IDS;
+		this.size = 0;
+	}
+
+	/**
+	 * Adds a meeting to the timeline in date order.
+	 * Meetings are usually added in (or close to) date order so the insertion point is normally
+	 * at, or near, the end of the arrays.
+	 * @param time the date of the meeting in milliseconds since the epoch
+	 * @param meetingId the ID of the meeting
+	 */
+	public void add(long time, int meetingId) {
+		int index = firstIndexAtOrAfter(time);
+		if (size == times.length) {
+			int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+			times = Arrays.copyOf(times, capacity);
+			meetingIds = Arrays.copyOf(meetingIds, capacity);
+		}
+		System.arraycopy(times, index, times, index + 1, size - index);
+		System.arraycopy(meetingIds, index, meetingIds, index + 1, size - index);
+		times[index] = time;
+		meetingIds[index] = meetingId;
+		size++;
+	}
+
+	/**
+	 * Adds meetings that are already in date order to the timeline.  They are merged with the
+	 * meetings held in one pass from the end, so adding many meetings at once moves each
+	 * meeting held at most once, rather than once for every meeting added before it.
+	 * @param newTimes the dates of the meetings to add, in ascending order and none already held
+	 * @param newMeetingIds the IDs of the meetings to add
+	 * @param from the index in the arrays of the first meeting to add
+	 * @param count the number of meetings to add
+	 */
+	public void addAll(long[] newTimes, int[] newMeetingIds, int from, int count) {
+		ensureCapacity(size + count);
+		int held = size - 1;
+		int added = from + count - 1;
+		for (int to = size + count - 1; added >= from; to--) {
+			if (held >= 0 && times[held] > newTimes[added]) {
+				times[to] = times[held];
+				meetingIds[to] = meetingIds[held];
+				held--;
+			} else {
+				times[to] = newTimes[added];
+				meetingIds[to] = newMeetingIds[added];
+				added--;
+			}
+		}
+		size += count;
+	}
+
+	/**
+	 * Grows the arrays, if needed, so that the timeline can hold the number of meetings given
+	 * without growing them again.
+	 * @param capacity the number of meetings expected
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > times.length) {
+			times = Arrays.copyOf(times, capacity);
+			meetingIds = Arrays.copyOf(meetingIds, capacity);
+		}
+	}
+
+	/**
+	 * Finds the position of the first meeting held at or after the time given.
+	 * @param time in milliseconds since the epoch
+	 * @return the index of the first such meeting, or size() if there is none
+	 */
+	public int firstIndexAtOrAfter(long time) {
+		//meetings are most often added at the end, so check that before searching
+		if (size == 0 || times[size - 1] < time) {
+			return size;
+		}
+		int low = 0;
+		int high = size - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] < time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Finds the position of the first meeting held at or after the time given, searching
+	 * forward from a position known to be no later than it.  The search gallops, doubling its
+	 * step until it passes the time and then searching back by bisection, so its cost depends
+	 * on how far the answer is from where it started rather than on the size of the timeline.
+	 * @param time in milliseconds since the epoch
+	 * @param from the position to search from
+	 * @return the index of the first such meeting, or size() if there is none
+	 */
+	public int firstIndexAtOrAfter(long time, int from) {
+		int low = from;
+		int high = from;
+		int step = 1;
+		while (high < size && times[high] < time) {
+			low = high + 1;
+			high = from + step;
+			step <<= 1;
+		}
+		high = Math.min(high, size);
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] < time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Finds the meetings that are in every one of the timelines given.  Each meeting of the
+	 * shortest timeline is searched for in the others by galloping forward from where the
+	 * last one was found, so the cost is proportional to the length of the shortest timeline.
+	 * @param timelines the timelines, which are reordered
+	 * @return the meetings in all of them, as a new timeline
+	 */
+	public static MeetingTimeline intersection(MeetingTimeline[] timelines) {
+		MeetingTimeline result = new MeetingTimeline();
+		if (timelines.length == 0) {
+			return result;
+		}
+		Arrays.sort(timelines, (a, b) -> Integer.compare(a.size, b.size));
+		MeetingTimeline shortest = timelines[0];
+		int[] positions = new int[timelines.length];
+		search:
+		for (int i = 0; i < shortest.size; i++) {
+			long time = shortest.times[i];
+			for (int j = 1; j < timelines.length; j++) {
+				positions[j] = timelines[j].firstIndexAtOrAfter(time, positions[j]);
+				if (positions[j] == timelines[j].size) {
+					break search;
+				}
+				if (timelines[j].times[positions[j]] != time) {
+					continue search;
+				}
+			}
+			result.append(time, shortest.meetingIds[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the meetings that are in any of the timelines given, merging them in pairs so
+	 * that each meeting is copied once for each time the number of timelines halves.
+	 * @param timelines the timelines
+	 * @return the meetings in at least one of them, as a new timeline
+	 */
+	public static MeetingTimeline union(MeetingTimeline[] timelines) {
+		if (timelines.length == 0) {
+			return new MeetingTimeline();
+		}
+		MeetingTimeline[] merged = timelines.clone();
+		for (int count = merged.length; count > 1; count = (count + 1) / 2) {
+			for (int i = 0; i < count / 2; i++) {
+				merged[i] = merge(merged[2 * i], merged[2 * i + 1]);
+			}
+			if (count % 2 == 1) {
+				merged[count / 2] = merged[count - 1];
+			}
+		}
+		return merged[0];
+	}
+
+	/**
+	 * Merges two timelines, keeping one copy of meetings in both.
+	 * @param a one timeline
+	 * @param b the other
+	 * @return the meetings in either, as a new timeline
+	 */
+	private static MeetingTimeline merge(MeetingTimeline a, MeetingTimeline b) {
+		MeetingTimeline result = new MeetingTimeline();
+		result.times = new long[a.size + b.size];
+		result.meetingIds = new int[a.size + b.size];
+		int i = 0;
+		int j = 0;
+		while (i < a.size && j < b.size) {
+			if (a.times[i] < b.times[j]) {
+				result.append(a.times[i], a.meetingIds[i++]);
+			} else if (b.times[j] < a.times[i]) {
+				result.append(b.times[j], b.meetingIds[j++]);
+			} else {
+				result.append(a.times[i], a.meetingIds[i]);
+				i++;
+				j++;
+			}
+		}
+		while (i < a.size) {
+			result.append(a.times[i], a.meetingIds[i++]);
+		}
+		while (j < b.size) {
+			result.append(b.times[j], b.meetingIds[j++]);
+		}
+		return result;
+	}
+
+	/**
+	 * Adds a meeting later than any in the timeline to its end.
+	 * @param time the date of the meeting in milliseconds since the epoch
+	 * @param meetingId the ID of the meeting
+	 */
+	private void append(long time, int meetingId) {
+		if (size == times.length) {
+			int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+			times = Arrays.copyOf(times, capacity);
+			meetingIds = Arrays.copyOf(meetingIds, capacity);
+		}
+		times[size] = time;
+		meetingIds[size] = meetingId;
+		size++;
+	}
+
+	/**
+	 * @return the number of meetings in the timeline
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index the position in the timeline
+	 * @return the date of the meeting at that position, in milliseconds since the epoch
+	 */
+	public long getTime(int index) {
+		return times[index];
+	}
+
+	/**
+	 * @param index the position in the timeline
+	 * @return the ID of the meeting at that position
+	 */
+	public int getMeetingId(int index) {
+		return meetingIds[index];
+	}
+}
@@ -0,0 +1,35 @@
+/**
+ * A contact to be added by ContactManager.addNewContacts(), before it has an ID.
+ *
+ * @author markkingsbury
+ */
+
+public class NewContact {
+
+	private String name;
+	private String notes;
+
+	/**
+	 * Constructor for a new contact.
+	 * @param name the name of the contact
+	 * @param notes notes to be added about the contact
+	 */
+	public NewContact(String name, String notes) {
+		this.name = name;
+		this.notes = notes;
+	}
+
+	/**
+	 * @return the name of the contact
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the notes about the contact
+	 */
+	public String getNotes() {
+		return notes;
+	}
+}
@@ -0,0 +1,67 @@
+import java.time.Instant;
+import java.util.Set;
+
+/**
+ * A meeting to be added by ContactManager.addMeetings(), before it has an ID: either a
+ * future meeting or a record of a meeting that took place in the past, with its notes.
+ *
+ * @author markkingsbury
+ */
+
+public class NewMeeting {
+
+	private Set<Contact> contacts;
+	private Instant date;
+	private String notes;
+
+	/**
+	 * Constructor for a meeting to take place in the future, as addFutureMeeting() adds.
+	 * @param contacts a set of contacts that will participate in the meeting
+	 * @param date the date on which the meeting will take place
+	 */
+	public NewMeeting(Set<Contact> contacts, Instant date) {
+		this.contacts = contacts;
+		this.date = date;
+		this.notes = null;
+	}
+
+	/**
+	 * Constructor for a meeting that took place in the past, as addNewPastMeeting() adds.
+	 * @param contacts a set of contacts that participated in the meeting
+	 * @param date the date on which the meeting took place
+	 * @param notes messages to be added about the meeting
+	 */
+	public NewMeeting(Set<Contact> contacts, Instant date, String notes) {
+		this.contacts = contacts;
+		this.date = date;
+		this.notes = notes;
+	}
+
+	/**
+	 * @return the contacts participating in the meeting
+	 */
+	public Set<Contact> getContacts() {
+		return contacts;
+	}
+
+	/**
+	 * @return the date of the meeting
+	 */
+	public Instant getDate() {
+		return date;
+	}
+
+	/**
+	 * @return the notes about the meeting, or null for a future meeting
+	 */
+	public String getNotes() {
+		return notes;
+	}
+
+	/**
+	 * @return true if this is a record of a meeting in the past, false for a future meeting
+	 */
+	public boolean isPast() {
+		return notes != null;
+	}
+}
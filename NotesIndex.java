@@ -0,0 +1,164 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An inverted index of the words in the notes of a set of contacts or meetings, used by
+ * ContactManager to search notes without reading them all.  Each word maps to the IDs of
+ * the contacts (or meetings) whose notes contain it, in ascending order.
+ *
+ * A word is a run of letters and digits; words are indexed and searched for in lower case,
+ * so searches ignore case and punctuation.
+ *
+ * @author markkingsbury
+ */
+
+public class NotesIndex {
+
+	private Map<String, IdList> postings;
+
+	/**
+	 * Creates an empty index.
+	 */
+	public NotesIndex() {
+		this.postings = new HashMap<String, IdList>();
+	}
+
+	/**
+	 * Splits text into its distinct words.
+	 * @param text the text
+	 * @return the words, in lower case
+	 */
+	public static Set<String> tokenize(String text) {
+		Set<String> words = new HashSet<String>();
+		String lowerCase = text.toLowerCase(Locale.ROOT);
+		int start = -1;
+		for (int i = 0; i <= lowerCase.length(); i++) {
+			boolean inWord = i < lowerCase.length() && Character.isLetterOrDigit(lowerCase.charAt(i));
+			if (inWord && start < 0) {
+				start = i;
+			} else if (!inWord && start >= 0) {
+				words.add(lowerCase.substring(start, i));
+				start = -1;
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Indexes the words in the notes of a contact or meeting.
+	 * @param id the ID of the contact or meeting
+	 * @param notes the notes, or the notes just added to them
+	 */
+	public void add(int id, String notes) {
+		for (String word: tokenize(notes)) {
+			addWord(id, word);
+		}
+	}
+
+	/**
+	 * Brings the index up to date when the notes of a contact or meeting change, adding and
+	 * removing only the words that differ.
+	 * @param id the ID of the contact or meeting
+	 * @param oldNotes the notes that were indexed
+	 * @param newNotes the notes now
+	 */
+	public void update(int id, String oldNotes, String newNotes) {
+		Set<String> oldWords = tokenize(oldNotes);
+		Set<String> newWords = tokenize(newNotes);
+		for (String word: oldWords) {
+			if (!newWords.contains(word)) {
+				IdList list = postings.get(word);
+				if (list != null && list.remove(id) && list.size() == 0) {
+					postings.remove(word);
+				}
+			}
+		}
+		for (String word: newWords) {
+			if (!oldWords.contains(word)) {
+				addWord(id, word);
+			}
+		}
+	}
+
+	/**
+	 * Finds the contacts or meetings whose notes contain every word of the query.
+	 * @param query the words to search for
+	 * @return the IDs in ascending order; none if the query has no words
+	 */
+	public int[] search(String query) {
+		Set<String> words = tokenize(query);
+		IdList[] lists = new IdList[words.size()];
+		int i = 0;
+		for (String word: words) {
+			lists[i] = postings.get(word);
+			if (lists[i] == null) {
+				return new int[0];
+			}
+			i++;
+		}
+		return IdList.intersect(lists);
+	}
+
+	/**
+	 * Removes every word from the index.
+	 */
+	public void clear() {
+		postings.clear();
+	}
+
+	/**
+	 * Writes the index: the number of words, then each word (its UTF-8 length and bytes)
+	 * followed by the number of IDs and the IDs.
+	 * @param out the stream to write to
+	 * @throws IOException if the index can not be written
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(postings.size());
+		for (Map.Entry<String, IdList> entry: postings.entrySet()) {
+			byte[] word = entry.getKey().getBytes(StandardCharsets.UTF_8);
+			out.writeInt(word.length);
+			out.write(word);
+			int[] ids = entry.getValue().toArray();
+			out.writeInt(ids.length);
+			for (int id: ids) {
+				out.writeInt(id);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the contents of the index with an index written by write().
+	 * @param in the stream to read from
+	 * @throws IOException if the index can not be read
+	 */
+	public void read(DataInputStream in) throws IOException {
+		postings.clear();
+		int words = in.readInt();
+		for (int i = 0; i < words; i++) {
+			byte[] word = new byte[in.readInt()];
+			in.readFully(word);
+			IdList list = new IdList();
+			int count = in.readInt();
+			for (int j = 0; j < count; j++) {
+				list.add(in.readInt());
+			}
+			postings.put(new String(word, StandardCharsets.UTF_8), list);
+		}
+	}
+
+	private void addWord(int id, String word) {
+		IdList list = postings.get(word);
+		if (list == null) {
+			list = new IdList();
+			postings.put(word, list);
+		}
+		list.add(id);
+	}
+}
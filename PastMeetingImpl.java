@@ -24,6 +24,33 @@ public class PastMeetingImpl extends MeetingImpl implements PastMeeting {
 		this.meetingNotes = text;
 	}
 	
+	/**
+	 * This constructor uses the constructor of the abstract class MeetingImpl.
+	 * @param meetingId the meeting's ID (generated by ContactManager)
+	 * @param contacts the contacts attending the meeting
+	 * @param timeInMillis the date of the meeting in milliseconds since the epoch
+	 * @param text, the notes to be added about the meeting
+	 */
+	public PastMeetingImpl (int meetingId, Set<Contact> contacts, long timeInMillis,
+			String text) {
+		super(meetingId, contacts, timeInMillis);
+		this.meetingNotes = text;
+	}
+	
+	/**
+	 * This constructor uses the constructor of the abstract class MeetingImpl.
+	 * @param meetingId the meeting's ID (generated by ContactManager)
+	 * @param contactIds the IDs of the contacts attending, in ascending order
+	 * @param timeInMillis the date of the meeting in milliseconds since the epoch
+	 * @param contactLookup finds the contacts by ID
+	 * @param text, the notes to be added about the meeting
+	 */
+	public PastMeetingImpl (int meetingId, int[] contactIds, long timeInMillis,
+			ContactLookup contactLookup, String text) {
+		super(meetingId, contactIds, timeInMillis, contactLookup);
+		this.meetingNotes = text;
+	}
+	
 	@Override
 	public String getNotes() {
 		return meetingNotes;
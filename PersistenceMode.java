@@ -0,0 +1,36 @@
+/**
+ * How a ContactManagerImpl saves its contacts and meetings to disk.
+ *
+ * @author markkingsbury
+ */
+
+public enum PersistenceMode {
+
+	/**
+	 * Every flush() rewrites the whole text data file.
+	 */
+	TEXT_SNAPSHOT,
+
+	/**
+	 * Changes are appended to a journal next to the text data file and flush() only writes
+	 * the changes made since the last flush.  The journal is folded into the data file
+	 * (compacted) once it holds more than half as many records as the data file.
+	 */
+	JOURNAL,
+
+	/**
+	 * Every flush() rewrites a compact binary data file (see BinarySnapshotWriter).  If there
+	 * is no binary data file yet the text data file is loaded instead, so existing data is
+	 * imported; ContactManagerImpl.exportText() writes the text format on request.
+	 */
+	BINARY_SNAPSHOT,
+
+	/**
+	 * As BINARY_SNAPSHOT, but the binary data file is mapped into memory and loading only
+	 * finds where each contact and meeting starts.  A contact or meeting is decoded when first
+	 * looked up by ID, the rest when an operation needs them all, and the notes of past
+	 * meetings only when asked for, which shortens loading and keeps the notes off the heap.
+	 * Data files over 2GB are loaded as for BINARY_SNAPSHOT.
+	 */
+	MAPPED_SNAPSHOT
+}
@@ -0,0 +1,123 @@
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/**
+ * An unmodifiable SortedSet over part of an array that is already in order, with no two
+ * elements equal.  It lets an array sorted once be handed to an empty TreeSet, whose
+ * addAll() (or constructor) then builds its tree straight from it in linear time rather than
+ * inserting the elements one at a time.
+ *
+ * Ranges are views of the same array, found by binary search.  Taking a range of a range
+ * keeps within it: bounds outside it are treated as its own ends.
+ *
+ * @author markkingsbury
+ * @param <E> the type of element
+ */
+
+public class SortedArraySet<E> extends AbstractSet<E> implements SortedSet<E> {
+
+	private E[] elements;
+	private int start;
+	private int end;
+	private Comparator<? super E> comparator;
+
+	/**
+	 * Makes a set of every element of the array.
+	 * @param elements the elements, in the comparator's order with no two equal
+	 * @param comparator the order of the elements, or null for their natural order
+	 */
+	public SortedArraySet(E[] elements, Comparator<? super E> comparator) {
+		this(elements, 0, elements.length, comparator);
+	}
+
+	private SortedArraySet(E[] elements, int start, int end, Comparator<? super E> comparator) {
+		this.elements = elements;
+		this.start = start;
+		this.end = end;
+		this.comparator = comparator;
+	}
+
+	@Override
+	public Comparator<? super E> comparator() {
+		return comparator;
+	}
+
+	@Override
+	public int size() {
+		return end - start;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		@SuppressWarnings("unchecked")
+		E element = (E) o;
+		int index = indexOf(element);
+		return index < end && compare(elements[index], element) == 0;
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return Arrays.asList(elements).subList(start, end).iterator();
+	}
+
+	@Override
+	public SortedSet<E> subSet(E fromElement, E toElement) {
+		if (compare(fromElement, toElement) > 0) {
+			throw new IllegalArgumentException("fromElement is after toElement");
+		}
+		return new SortedArraySet<E>(elements, indexOf(fromElement), indexOf(toElement), comparator);
+	}
+
+	@Override
+	public SortedSet<E> headSet(E toElement) {
+		return new SortedArraySet<E>(elements, start, indexOf(toElement), comparator);
+	}
+
+	@Override
+	public SortedSet<E> tailSet(E fromElement) {
+		return new SortedArraySet<E>(elements, indexOf(fromElement), end, comparator);
+	}
+
+	@Override
+	public E first() {
+		if (start == end) {
+			throw new NoSuchElementException();
+		}
+		return elements[start];
+	}
+
+	@Override
+	public E last() {
+		if (start == end) {
+			throw new NoSuchElementException();
+		}
+		return elements[end - 1];
+	}
+
+	/**
+	 * @param element an element to search for
+	 * @return the index of the first element of this set not before it, or end if there is none
+	 */
+	private int indexOf(E element) {
+		int low = start;
+		int high = end;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compare(elements[mid], element) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	@SuppressWarnings("unchecked")
+	private int compare(E a, E b) {
+		return (comparator == null) ? ((Comparable<? super E>) a).compareTo(b) : comparator.compare(a, b);
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ * An index of the three character sequences (trigrams) in a set of strings, used by
+ * ContactManager to find contacts whose name contains some text without testing every name.
+ * Each trigram maps to the IDs of the strings containing it, in ascending order.  Any string
+ * containing a query of three or more characters contains every trigram of the query, so the
+ * IDs in all of the query's lists are the only candidates; they still have to be checked,
+ * as the trigrams may appear apart.
+ *
+ * Trigrams are packed into an int, ten bits per character.  Characters above 1023 share
+ * keys with others, which only adds candidates that fail the check.
+ *
+ * @author markkingsbury
+ */
+
+public class TrigramIndex {
+
+	/**
+	 * The length of the sequences indexed; shorter queries can not be narrowed.
+	 */
+	public static final int GRAM_LENGTH = 3;
+
+	private IntObjectMap<IdList> postings;
+
+	/**
+	 * Creates an empty index.
+	 */
+	public TrigramIndex() {
+		this.postings = new IntObjectMap<IdList>();
+	}
+
+	/**
+	 * Indexes a string.  IDs are expected to be added in ascending order, as contacts are.
+	 * @param id the ID of the string (a contact ID)
+	 * @param text the string
+	 */
+	public void add(int id, String text) {
+		for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+			int gram = gramAt(text, i);
+			IdList list = postings.get(gram);
+			if (list == null) {
+				list = new IdList();
+				postings.put(gram, list);
+			}
+			list.add(id);
+		}
+	}
+
+	/**
+	 * Finds the IDs of the strings that may contain the text given.
+	 * @param text the text searched for
+	 * @return the candidate IDs in ascending order, or null if the text is shorter than
+	 *	GRAM_LENGTH and so every string is a candidate
+	 */
+	public int[] candidates(String text) {
+		if (text.length() < GRAM_LENGTH) {
+			return null;
+		}
+		int count = text.length() - GRAM_LENGTH + 1;
+		IdList[] lists = new IdList[count];
+		for (int i = 0; i < count; i++) {
+			lists[i] = postings.get(gramAt(text, i));
+			if (lists[i] == null) {
+				return new int[0];
+			}
+		}
+		return IdList.intersect(lists);
+	}
+
+	private static int gramAt(String text, int index) {
+		return (text.charAt(index) << 20) ^ (text.charAt(index + 1) << 10) ^ text.charAt(index + 2);
+	}
+}